@@ -0,0 +1,80 @@
+package nl.esciencecenter.xenon.grpc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/*
+    Exponential backoff between attempts to repair handles, like reconnecting a filesystem whose connection broke.
+
+    After each failed attempt the delay until the next attempt doubles, up to a maximum, a successful attempt resets it.
+ */
+public class Backoff<K> {
+    private static class Attempts {
+        private final int failures;
+        private final long nextAttempt;
+
+        Attempts(int failures, long nextAttempt) {
+            this.failures = failures;
+            this.nextAttempt = nextAttempt;
+        }
+    }
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final LongSupplier clock;
+    private final Map<K, Attempts> attempts = new ConcurrentHashMap<>();
+
+    /**
+     * @param initialDelay milliseconds to wait after the first failed attempt
+     * @param maxDelay maximum milliseconds to wait between attempts
+     */
+    public Backoff(long initialDelay, long maxDelay) {
+        this(initialDelay, maxDelay, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock current time in milliseconds
+     */
+    public Backoff(long initialDelay, long maxDelay, LongSupplier clock) {
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.clock = clock;
+    }
+
+    /**
+     * @return true when the handle has not failed before or its delay has passed
+     */
+    public boolean isDue(K handle) {
+        Attempts handleAttempts = attempts.get(handle);
+        return handleAttempts == null || clock.getAsLong() >= handleAttempts.nextAttempt;
+    }
+
+    /**
+     * @return milliseconds until the next attempt
+     */
+    public long failed(K handle) {
+        Attempts handleAttempts = attempts.compute(handle, (key, previous) -> {
+            int failures = previous == null ? 1 : previous.failures + 1;
+            return new Attempts(failures, clock.getAsLong() + delay(failures));
+        });
+        return delay(handleAttempts.failures);
+    }
+
+    public void succeeded(K handle) {
+        attempts.remove(handle);
+    }
+
+    /**
+     * Drops the attempts of a handle which has been closed
+     */
+    public void remove(K handle) {
+        attempts.remove(handle);
+    }
+
+    private long delay(int failures) {
+        // shift is capped so the delay does not overflow
+        long delay = initialDelay << Math.min(failures - 1, 30);
+        return Math.min(delay, maxDelay);
+    }
+}
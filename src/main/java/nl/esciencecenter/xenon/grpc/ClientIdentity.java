@@ -0,0 +1,58 @@
+package nl.esciencecenter.xenon.grpc;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+import io.grpc.Attributes;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/*
+    Identifies the client of each call, so limits can be applied per client.
+
+    With mutual TLS the client is identified by the subject of its certificate, otherwise by the host address it connects from.
+ */
+public class ClientIdentity implements ServerInterceptor {
+    static final String UNKNOWN = "unknown";
+    private static final Context.Key<String> KEY = Context.key("client-identity");
+
+    /**
+     * @return identity of client of current call
+     */
+    public static String current() {
+        String identity = KEY.get();
+        return identity == null ? UNKNOWN : identity;
+    }
+
+    @Override
+    public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call, Metadata headers, ServerCallHandler<Q, R> next) {
+        Context context = Context.current().withValue(KEY, identify(call.getAttributes()));
+        return Contexts.interceptCall(context, call, headers, next);
+    }
+
+    static String identify(Attributes attributes) {
+        SSLSession session = attributes.get(Grpc.TRANSPORT_ATTR_SSL_SESSION);
+        if (session != null) {
+            try {
+                return session.getPeerPrincipal().getName();
+            } catch (SSLPeerUnverifiedException e) {
+                // fall back to address
+            }
+        }
+        SocketAddress address = attributes.get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inetAddress = (InetSocketAddress) address;
+            // the port differs per connection of the same client
+            return inetAddress.getAddress() == null ? inetAddress.getHostString() : inetAddress.getAddress().getHostAddress();
+        }
+        return address == null ? UNKNOWN : address.toString();
+    }
+}
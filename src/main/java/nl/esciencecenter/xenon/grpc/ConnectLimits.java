@@ -0,0 +1,83 @@
+package nl.esciencecenter.xenon.grpc;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import nl.esciencecenter.xenon.XenonException;
+
+/*
+    Limits the number of filesystems and schedulers connecting to the same host at the same time.
+
+    Login nodes drop connections which are still authenticating when too many arrive at once (MaxStartups of sshd),
+    so a burst of create calls for the same host waits its turn instead of failing.
+    Xenon owns the connection of each adaptor, so connections can not be multiplexed here, equivalent filesystems share a connection through the pool of the filesystem service.
+ */
+public class ConnectLimits {
+    public static final int DEFAULT_MAX_CONNECTS_PER_HOST = 4;
+
+    public interface Connector<T> {
+        T connect() throws XenonException;
+    }
+
+    private final int maxConnectsPerHost;
+    private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxConnectsPerHost maximum connections being made to a host at the same time, 0 for unlimited
+     */
+    public ConnectLimits(int maxConnectsPerHost) {
+        this.maxConnectsPerHost = maxConnectsPerHost;
+    }
+
+    /**
+     * Connects once fewer than the maximum number of connections are being made to the host of the location
+     *
+     * @param adaptor name of adaptor, used in error when interrupted
+     * @param location location of filesystem or scheduler, locations without host are not limited
+     * @param connector makes the connection
+     */
+    public <T> T connect(String adaptor, String location, Connector<T> connector) throws XenonException {
+        String host = host(location);
+        if (maxConnectsPerHost == 0 || host.isEmpty()) {
+            return connector.connect();
+        }
+        Semaphore permits = hosts.computeIfAbsent(host, key -> new Semaphore(maxConnectsPerHost, true));
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XenonException(adaptor, "Interrupted while waiting to connect to " + host, e);
+        }
+        try {
+            return connector.connect();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int getMaxConnectsPerHost() {
+        return maxConnectsPerHost;
+    }
+
+    /**
+     * @return host and port of location without scheme, user and path, empty for local locations
+     */
+    static String host(String location) {
+        String host = location;
+        int scheme = host.indexOf("://");
+        if (scheme >= 0) {
+            host = host.substring(scheme + 3);
+        }
+        int path = host.indexOf('/');
+        if (path >= 0) {
+            host = host.substring(0, path);
+        }
+        int user = host.lastIndexOf('@');
+        if (user >= 0) {
+            host = host.substring(user + 1);
+        }
+        return host.toLowerCase(Locale.ROOT);
+    }
+}
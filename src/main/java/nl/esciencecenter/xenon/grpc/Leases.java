@@ -0,0 +1,75 @@
+package nl.esciencecenter.xenon.grpc;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/*
+    Leases of handles which clients forget to close, like filesystems and schedulers of crashed clients.
+
+    A lease is renewed each time its handle is used, a handle whose lease has not been renewed within the idle timeout has expired and can be closed by the server.
+ */
+public class Leases<K> {
+    private final long idleTimeout;
+    private final LongSupplier clock;
+    // Time of last use by handle
+    private final Map<K, Long> lastUse = new ConcurrentHashMap<>();
+
+    /**
+     * @param idleTimeout milliseconds after which an unused handle expires, 0 disables leases
+     */
+    public Leases(long idleTimeout) {
+        this(idleTimeout, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock current time in milliseconds
+     */
+    public Leases(long idleTimeout, LongSupplier clock) {
+        this.idleTimeout = idleTimeout;
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return idleTimeout > 0;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Starts or renews the lease of a new handle
+     */
+    public void start(K handle) {
+        if (isEnabled()) {
+            lastUse.put(handle, clock.getAsLong());
+        }
+    }
+
+    /**
+     * Renews the lease of a handle, handles without lease do not get one
+     */
+    public void renew(K handle) {
+        if (isEnabled()) {
+            lastUse.computeIfPresent(handle, (key, time) -> clock.getAsLong());
+        }
+    }
+
+    public void end(K handle) {
+        lastUse.remove(handle);
+    }
+
+    /**
+     * @return handles whose lease has expired, their leases stay until ended or renewed
+     */
+    public List<K> expired() {
+        long now = clock.getAsLong();
+        return lastUse.entrySet().stream()
+            .filter(entry -> now - entry.getValue() >= idleTimeout)
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toList());
+    }
+}
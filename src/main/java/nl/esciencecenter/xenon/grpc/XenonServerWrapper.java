@@ -12,6 +12,7 @@ import javax.net.ssl.SSLException;
 
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
 import io.grpc.netty.GrpcSslContexts;
 import io.grpc.netty.NettyServerBuilder;
 import io.grpc.protobuf.services.ProtoReflectionService;
@@ -33,12 +34,22 @@ import nl.esciencecenter.xenon.grpc.schedulers.SchedulerService;
 public class XenonServerWrapper {
     private static final Logger LOGGER = LoggerFactory.getLogger(XenonServerWrapper.class);
     static final Integer DEFAULT_PORT = 50051;
+    static final Long DEFAULT_METADATA_CACHE_TTL = 10000L;
     private final ArgumentParser parser = buildArgumentParser();
     private File serverPrivateKey = null;
     private File clientCertChain = null;
     private File serverCertChain = null;
     private Integer port = DEFAULT_PORT;
     private boolean useTLS = false;
+    private Integer metadataCacheSize = 0;
+    private Long metadataCacheTtl = DEFAULT_METADATA_CACHE_TTL;
+    private Long maxStreamRate = 0L;
+    private Long maxFileSystemRate = 0L;
+    private Long maxClientRate = 0L;
+    private Long fileSystemIdleTimeout = 0L;
+    private Long leaseTimeout = 0L;
+    private Integer maxConnectsPerHost = ConnectLimits.DEFAULT_MAX_CONNECTS_PER_HOST;
+    private Long healthCheckInterval = 0L;
 
     private Server server;
     private FileSystemService filesystemService;
@@ -75,6 +86,41 @@ public class XenonServerWrapper {
         serverGroup.addArgument("--client-cert-chain")
                 .type(Arguments.fileType().verifyCanRead())
                 .help("Certificate chain file in PEM format for trusted client");
+        ArgumentGroup cacheGroup = myparser
+                .addArgumentGroup("metadata cache")
+                .description("Cache of results of exists, getAttributes and list calls per filesystem, " +
+                        "changes made through this server are seen immediately, other changes after the time to live");
+        cacheGroup.addArgument("--metadata-cache-size")
+                .type(Integer.class).setDefault(0)
+                .help("Maximum number of cached paths per filesystem, 0 disables the cache");
+        cacheGroup.addArgument("--metadata-cache-ttl")
+                .type(Long.class).setDefault(DEFAULT_METADATA_CACHE_TTL)
+                .help("Time in milliseconds a cached path is used before it is looked up again");
+        ArgumentGroup rateGroup = myparser
+                .addArgumentGroup("rate limits")
+                .description("Limits on bytes per second of readFromFile, writeToFile, appendToFile, uploadPart and chunked copy streams, " +
+                        "streams which share a limit get an equal share of it, 0 is unlimited");
+        rateGroup.addArgument("--max-stream-rate")
+                .type(Long.class).setDefault(0L)
+                .help("Maximum bytes per second of each stream");
+        rateGroup.addArgument("--max-filesystem-rate")
+                .type(Long.class).setDefault(0L)
+                .help("Maximum bytes per second of all streams of a filesystem");
+        rateGroup.addArgument("--max-client-rate")
+                .type(Long.class).setDefault(0L)
+                .help("Maximum bytes per second of all streams of a client, identified by its certificate or else its address");
+        myparser.addArgument("--filesystem-idle-timeout")
+                .type(Long.class).setDefault(0L)
+                .help("Time in milliseconds a closed filesystem is kept connected, so creating the same filesystem again reuses it, create calls with the same request then share the filesystem and its working directory, 0 disconnects right away and does not share filesystems");
+        myparser.addArgument("--lease-timeout")
+                .type(Long.class).setDefault(0L)
+                .help("Time in milliseconds after which a filesystem or scheduler which has not been used is closed, for clients which crash or forget to close them, 0 never closes them");
+        myparser.addArgument("--max-connects-per-host")
+                .type(Integer.class).setDefault(ConnectLimits.DEFAULT_MAX_CONNECTS_PER_HOST)
+                .help("Maximum number of filesystems and schedulers connecting to the same host at the same time, others wait their turn, 0 for unlimited");
+        myparser.addArgument("--health-check-interval")
+                .type(Long.class).setDefault(0L)
+                .help("Time in milliseconds between checks whether filesystems and schedulers are still connected, broken ones are reconnected, 0 disables the checks");
         myparser.addArgument("--proto").action(storeTrue()).help("Print proto file of server and exits");
         return myparser;
     }
@@ -118,9 +164,20 @@ public class XenonServerWrapper {
         }
         Map<String, FileSystem> fileSystems = new ConcurrentHashMap<>();
         filesystemService = new FileSystemService(fileSystems);
+        filesystemService.setMetadataCache(metadataCacheSize, metadataCacheTtl);
+        filesystemService.setRateLimits(maxStreamRate, maxFileSystemRate, maxClientRate);
+        filesystemService.setFileSystemIdleTimeout(fileSystemIdleTimeout);
+        filesystemService.setLeaseTimeout(leaseTimeout);
+        ConnectLimits connectLimits = new ConnectLimits(maxConnectsPerHost);
+        filesystemService.setConnectLimits(connectLimits);
         schedulerService = new SchedulerService(fileSystems);
+        schedulerService.setFileSystemService(filesystemService);
+        schedulerService.setLeaseTimeout(leaseTimeout);
+        schedulerService.setConnectLimits(connectLimits);
+        filesystemService.setHealthCheckInterval(healthCheckInterval);
+        schedulerService.setHealthCheckInterval(healthCheckInterval);
         server = builder
-                .addService(filesystemService)
+                .addService(ServerInterceptors.intercept(filesystemService, new ClientIdentity()))
                 .addService(schedulerService)
                 .addService(ProtoReflectionService.newInstance())
                 .build();
@@ -132,6 +189,33 @@ public class XenonServerWrapper {
             printProto();
         }
         port = res.getInt("port");
+        metadataCacheSize = res.getInt("metadata_cache_size");
+        metadataCacheTtl = res.getLong("metadata_cache_ttl");
+        if (metadataCacheSize < 0 || metadataCacheTtl < 0) {
+            throw new ArgumentParserException("Metadata cache size and time to live can not be negative", parser);
+        }
+        maxStreamRate = res.getLong("max_stream_rate");
+        maxFileSystemRate = res.getLong("max_filesystem_rate");
+        maxClientRate = res.getLong("max_client_rate");
+        if (maxStreamRate < 0 || maxFileSystemRate < 0 || maxClientRate < 0) {
+            throw new ArgumentParserException("Rate limits can not be negative", parser);
+        }
+        fileSystemIdleTimeout = res.getLong("filesystem_idle_timeout");
+        if (fileSystemIdleTimeout < 0) {
+            throw new ArgumentParserException("Filesystem idle timeout can not be negative", parser);
+        }
+        leaseTimeout = res.getLong("lease_timeout");
+        if (leaseTimeout < 0) {
+            throw new ArgumentParserException("Lease timeout can not be negative", parser);
+        }
+        maxConnectsPerHost = res.getInt("max_connects_per_host");
+        if (maxConnectsPerHost < 0) {
+            throw new ArgumentParserException("Maximum connects per host can not be negative", parser);
+        }
+        healthCheckInterval = res.getLong("health_check_interval");
+        if (healthCheckInterval < 0) {
+            throw new ArgumentParserException("Health check interval can not be negative", parser);
+        }
         serverCertChain = optionalFileArgument(res, "server_cert_chain");
         serverPrivateKey = optionalFileArgument(res, "server_private_key");
         clientCertChain = optionalFileArgument(res, "client_cert_chain");
@@ -220,4 +304,40 @@ public class XenonServerWrapper {
     boolean getUseTLS() {
         return useTLS;
     }
+
+    Integer getMetadataCacheSize() {
+        return metadataCacheSize;
+    }
+
+    Long getMetadataCacheTtl() {
+        return metadataCacheTtl;
+    }
+
+    Long getMaxStreamRate() {
+        return maxStreamRate;
+    }
+
+    Long getMaxFileSystemRate() {
+        return maxFileSystemRate;
+    }
+
+    Long getMaxClientRate() {
+        return maxClientRate;
+    }
+
+    Long getFileSystemIdleTimeout() {
+        return fileSystemIdleTimeout;
+    }
+
+    Long getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    Integer getMaxConnectsPerHost() {
+        return maxConnectsPerHost;
+    }
+
+    Long getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
 }
@@ -1,8 +1,7 @@
 package nl.esciencecenter.xenon.grpc.filesystems;
 
-import static nl.esciencecenter.xenon.grpc.MapUtils.mapException;
-
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
@@ -11,28 +10,39 @@ import nl.esciencecenter.xenon.filesystems.FileSystem;
 import nl.esciencecenter.xenon.filesystems.Path;
 import nl.esciencecenter.xenon.grpc.XenonProto;
 
-public class AppendToFileBroadcaster extends Broadcaster implements StreamObserver<XenonProto.AppendToFileRequest>{
+public class AppendToFileBroadcaster extends Broadcaster<XenonProto.AppendToFileResponse> implements StreamObserver<XenonProto.AppendToFileRequest>{
+    private final Map<String, FileSystem> fileSystems;
+    private final MetadataCaches metadataCaches;
 
-    AppendToFileBroadcaster(Map<String, FileSystem> fileSystems, StreamObserver<XenonProto.Empty> responseObserver) {
-        super(fileSystems, responseObserver);
+    AppendToFileBroadcaster(Map<String, FileSystem> fileSystems, MetadataCaches metadataCaches, StreamObserver<XenonProto.AppendToFileResponse> responseObserver, Throttles throttles, Executor executor) {
+        super(responseObserver, throttles, executor);
+        this.fileSystems = fileSystems;
+        this.metadataCaches = metadataCaches;
     }
 
     @Override
     public void onNext(XenonProto.AppendToFileRequest value) {
-        try {
+        submitChunk(() -> {
             // open pip to write to on first incoming chunk
             if (pipe == null) {
+                checksummer = new Checksummer(value.getSha256());
                 String id = value.getFilesystem().getId();
                 if (!fileSystems.containsKey(id)) {
                     throw Status.NOT_FOUND.withDescription("File system with id: " + id).asException();
                 }
                 FileSystem filesystem = fileSystems.get(id);
                 Path path = new Path(value.getPath().getPath());
+                invalidateOnClose(metadataCaches, filesystem, path);
+                throttle(filesystem);
                 pipe = filesystem.appendToFile(path);
             }
-            pipe.write(value.getBuffer().toByteArray());
-        } catch (Exception e) {
-            responseObserver.onError(mapException(e));
-        }
+            write(value.getBuffer());
+        });
+    }
+
+    @Override
+    XenonProto.AppendToFileResponse response() {
+        Checksummer checksums = checksummer == null ? new Checksummer(false) : checksummer;
+        return XenonProto.AppendToFileResponse.newBuilder().setChecksums(checksums.getChecksums()).setThrottledMillis(getThrottledMillis()).build();
     }
 }
@@ -0,0 +1,61 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.FieldMask;
+import io.grpc.Status;
+import io.grpc.StatusException;
+
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Selects which fields of PathAttributes messages are filled, based on the field mask of a request
+ */
+class AttributeMask {
+    static final AttributeMask ALL = new AttributeMask(null);
+
+    // Null when all fields are selected
+    private final Set<Integer> fieldNumbers;
+
+    private AttributeMask(Set<Integer> fieldNumbers) {
+        this.fieldNumbers = fieldNumbers;
+    }
+
+    /**
+     * @param mask paths of mask are names of PathAttributes fields, an empty mask selects all fields
+     * @throws StatusException with INVALID_ARGUMENT status when mask has an unknown field
+     */
+    static AttributeMask of(FieldMask mask) throws StatusException {
+        if (mask.getPathsCount() == 0) {
+            return ALL;
+        }
+        Descriptors.Descriptor descriptor = XenonProto.PathAttributes.getDescriptor();
+        Set<Integer> fieldNumbers = new HashSet<>();
+        // the path identifies the entry, so it is always filled
+        fieldNumbers.add(XenonProto.PathAttributes.PATH_FIELD_NUMBER);
+        for (String name : mask.getPathsList()) {
+            fieldNumbers.add(findField(descriptor, name).getNumber());
+        }
+        return new AttributeMask(fieldNumbers);
+    }
+
+    private static Descriptors.FieldDescriptor findField(Descriptors.Descriptor descriptor, String name) throws StatusException {
+        Descriptors.FieldDescriptor field = descriptor.findFieldByName(name);
+        if (field != null) {
+            return field;
+        }
+        // field masks in JSON use camel case names
+        for (Descriptors.FieldDescriptor candidate : descriptor.getFields()) {
+            if (candidate.getJsonName().equals(name)) {
+                return candidate;
+            }
+        }
+        throw Status.INVALID_ARGUMENT.withDescription("Unknown PathAttributes field in mask: " + name).asException();
+    }
+
+    boolean includes(int fieldNumber) {
+        return fieldNumbers == null || fieldNumbers.contains(fieldNumber);
+    }
+}
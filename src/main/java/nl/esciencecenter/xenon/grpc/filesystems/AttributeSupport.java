@@ -0,0 +1,69 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.AttributeNotSupportedException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.FileSystemAdaptorDescription;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Remembers which optional PathAttributes fields a filesystem can not return.
+
+    Unsupported attributes are skipped, instead of throwing and catching an exception for each entry of a listing.
+    The support of a filesystem only comes from its adaptor description.
+    A single request learns from the first AttributeNotSupportedException of each attribute, using its own copy from forRequest(),
+    as one path without an attribute, like a file on a mount without owners, says nothing about the other paths of the filesystem.
+ */
+class AttributeSupport {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AttributeSupport.class);
+
+    // Field numbers of PathAttributes message
+    private final Set<Integer> unsupported = ConcurrentHashMap.newKeySet();
+
+    AttributeSupport() {
+    }
+
+    private AttributeSupport(Set<Integer> unsupported) {
+        this.unsupported.addAll(unsupported);
+    }
+
+    AttributeSupport(FileSystemAdaptorDescription description) {
+        if (!description.supportsReadingPosixPermissions()) {
+            unsupported.add(XenonProto.PathAttributes.PERMISSIONS_FIELD_NUMBER);
+            unsupported.add(XenonProto.PathAttributes.OWNER_FIELD_NUMBER);
+            unsupported.add(XenonProto.PathAttributes.GROUP_FIELD_NUMBER);
+        }
+    }
+
+    static AttributeSupport of(FileSystem filesystem) {
+        try {
+            return new AttributeSupport(FileSystem.getAdaptorDescription(filesystem.getAdaptorName()));
+        } catch (XenonException e) {
+            LOGGER.debug("No adaptor description of {}, learning supported attributes from its answers", filesystem.getAdaptorName(), e);
+            return new AttributeSupport();
+        }
+    }
+
+    /**
+     * @return copy which learns about unsupported attributes for a single request
+     */
+    AttributeSupport forRequest() {
+        return new AttributeSupport(unsupported);
+    }
+
+    boolean supports(int fieldNumber) {
+        return !unsupported.contains(fieldNumber);
+    }
+
+    void notSupported(int fieldNumber, AttributeNotSupportedException e) {
+        if (unsupported.add(fieldNumber)) {
+            LOGGER.debug("Skipping field {} of path attributes for rest of request, not supported", fieldNumber, e);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.NotConnectedException;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Looks up many paths of a filesystem at the same time and streams each result as soon as it is known.
+
+    The permits are shared by all batches on the same filesystem, so concurrent batches can not overload it.
+    A failed lookup is reported in the result of its path and does not stop the batch.
+    Lookups are started by a dispatcher on the executor and results are sent when the transport is ready,
+    a batch holds at most MAX_PENDING_RESULTS results which are being looked up or waiting to be sent.
+    Only one thread at a time calls the observer and it holds no lock while doing so,
+    as the transport can call onReady while holding its own lock.
+ */
+class BatchLookup {
+    // Maximum number of lookups running at the same time on a filesystem
+    static final int MAX_LOOKUPS_PER_FILESYSTEM = 16;
+    static final int MAX_PENDING_RESULTS = 2 * MAX_LOOKUPS_PER_FILESYSTEM;
+
+    interface Lookup {
+        void lookup(Path path, XenonProto.BatchPathResponse.Builder result) throws XenonException;
+    }
+
+    private final Semaphore permits;
+    private final Executor executor;
+    // Guarded by this
+    private final Queue<XenonProto.BatchPathResponse> results = new ArrayDeque<>();
+    // Number of times sending was requested while a thread was sending
+    private final AtomicInteger requests = new AtomicInteger();
+    private ServerCallStreamObserver<XenonProto.BatchPathResponse> observer;
+    private int total;
+    private int pending = 0;
+    private int sent = 0;
+    private boolean stopped = false;
+    private boolean interrupted = false;
+
+    BatchLookup(Semaphore permits, Executor executor) {
+        this.permits = permits;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts looking up the paths, returns right away
+     */
+    void run(List<XenonProto.Path> requestPaths, List<Path> paths, StreamObserver<XenonProto.BatchPathResponse> responseObserver, Lookup lookup) {
+        synchronized (this) {
+            observer = (ServerCallStreamObserver<XenonProto.BatchPathResponse>) responseObserver;
+            total = paths.size();
+        }
+        observer.setOnCancelHandler(this::cancel);
+        observer.setOnReadyHandler(this::send);
+        executor.execute(() -> dispatch(requestPaths, paths, lookup));
+    }
+
+    private void dispatch(List<XenonProto.Path> requestPaths, List<Path> paths, Lookup lookup) {
+        try {
+            for (int i = 0; i < paths.size(); i++) {
+                synchronized (this) {
+                    while (!stopped && pending >= MAX_PENDING_RESULTS) {
+                        wait();
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    pending++;
+                }
+                permits.acquire();
+                int index = i;
+                executor.execute(() -> {
+                    XenonProto.BatchPathResponse result;
+                    try {
+                        if (isStopped()) {
+                            return;
+                        }
+                        result = lookup(index, requestPaths.get(index), paths.get(index), lookup);
+                    } finally {
+                        permits.release();
+                    }
+                    synchronized (this) {
+                        results.add(result);
+                    }
+                    send();
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail();
+            return;
+        }
+        // completes an empty batch
+        send();
+    }
+
+    private synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    private void send() {
+        if (requests.getAndIncrement() != 0) {
+            // the thread which is sending will send again
+            return;
+        }
+        int missed = 1;
+        do {
+            drain();
+            missed = requests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void drain() {
+        while (true) {
+            boolean ready = observer.isReady();
+            if (observer.isCancelled()) {
+                cancel();
+                return;
+            }
+            XenonProto.BatchPathResponse result;
+            boolean failed = false;
+            synchronized (this) {
+                if (stopped) {
+                    return;
+                }
+                if (interrupted) {
+                    stopped = true;
+                    failed = true;
+                    notifyAll();
+                    result = null;
+                } else if (results.isEmpty()) {
+                    if (sent < total) {
+                        return;
+                    }
+                    stopped = true;
+                    result = null;
+                } else if (!ready) {
+                    return;
+                } else {
+                    result = results.poll();
+                    pending--;
+                    sent++;
+                    notifyAll();
+                }
+            }
+            if (result != null) {
+                observer.onNext(result);
+            } else if (failed) {
+                observer.onError(Status.CANCELLED.withDescription("Batch lookup interrupted").asException());
+                return;
+            } else {
+                observer.onCompleted();
+                return;
+            }
+        }
+    }
+
+    private synchronized void cancel() {
+        stopped = true;
+        notifyAll();
+    }
+
+    private void fail() {
+        synchronized (this) {
+            interrupted = true;
+        }
+        send();
+    }
+
+    private static XenonProto.BatchPathResponse lookup(int index, XenonProto.Path requestPath, Path path, Lookup lookup) {
+        XenonProto.BatchPathResponse.Builder result = XenonProto.BatchPathResponse.newBuilder()
+            .setIndex(index)
+            .setPath(requestPath);
+        try {
+            lookup.lookup(path, result);
+        } catch (Exception e) {
+            result.setErrorMessage(e.getMessage() == null ? e.getClass().getName() : e.getMessage())
+                .setErrorType(mapErrorType(e));
+        }
+        return result.build();
+    }
+
+    static XenonProto.BatchPathResponse.ErrorType mapErrorType(Exception exception) {
+        if (exception instanceof NoSuchPathException) {
+            return XenonProto.BatchPathResponse.ErrorType.NOT_FOUND;
+        } else if (exception instanceof NotConnectedException) {
+            return XenonProto.BatchPathResponse.ErrorType.NOT_CONNECTED;
+        } else if (exception instanceof XenonException) {
+            return XenonProto.BatchPathResponse.ErrorType.XENON;
+        }
+        return XenonProto.BatchPathResponse.ErrorType.OTHER;
+    }
+}
@@ -1,42 +1,219 @@
 package nl.esciencecenter.xenon.grpc.filesystems;
 
-import static nl.esciencecenter.xenon.grpc.MapUtils.empty;
 import static nl.esciencecenter.xenon.grpc.MapUtils.mapException;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
 
+import com.google.protobuf.ByteString;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import nl.esciencecenter.xenon.filesystems.FileSystem;
-import nl.esciencecenter.xenon.grpc.XenonProto;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.grpc.ClientIdentity;
 
-public class Broadcaster {
+/*
+    Writes an incoming stream of chunks to a Xenon output stream.
+
+    Writing to a remote filesystem can be slow, so incoming chunks are put in a bounded queue
+    and written by a writer on the executor instead of on the gRPC thread.
+    Inbound flow control is manual, a chunk is only requested from the client when a queued chunk has been written,
+    so the client sends data as fast as the filesystem accepts it.
+ */
+public abstract class Broadcaster<R> {
+    // Number of chunks that may be queued per stream
+    static final int QUEUE_CAPACITY = 16;
     private static final Logger LOGGER = LoggerFactory.getLogger(Broadcaster.class);
     OutputStream pipe;
-    final Map<String, FileSystem> fileSystems;
-    final StreamObserver<XenonProto.Empty> responseObserver;
+    private OutputStreamByteOutput pipeOutput;
+    // Null when no checksums are computed
+    Checksummer checksummer;
+    final StreamObserver<R> responseObserver;
+    private final Executor executor;
+    private final Throttles throttles;
+    // Client of the stream, the stream is throttled once it knows which filesystem it writes to
+    private final String client;
+    private Throttle throttle;
+    // Null when response observer does not support flow control
+    private final ServerCallStreamObserver<R> callObserver;
+    // Room for the chunks requested from the client and the end of the stream
+    private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY + 2);
+    private boolean draining = false;
+    private volatile boolean done = false;
+    private volatile boolean cancelled = false;
+    // File written by pipe, its cached metadata is dropped when the pipe is closed
+    private MetadataCaches metadataCaches;
+    private FileSystem writtenFileSystem;
+    private Path writtenPath;
+
+    interface Task {
+        void run() throws Exception;
+    }
 
-    Broadcaster(Map<String, FileSystem> fileSystems, StreamObserver<XenonProto.Empty> responseObserver) {
-        this.fileSystems = fileSystems;
+    Broadcaster(StreamObserver<R> responseObserver, Throttles throttles, Executor executor) {
         this.responseObserver = responseObserver;
+        this.throttles = throttles;
+        this.client = ClientIdentity.current();
+        this.executor = executor;
+        if (responseObserver instanceof ServerCallStreamObserver) {
+            callObserver = (ServerCallStreamObserver<R>) responseObserver;
+            callObserver.disableAutoInboundFlowControl();
+            callObserver.setOnCancelHandler(this::cancel);
+            callObserver.request(QUEUE_CAPACITY);
+        } else {
+            callObserver = null;
+        }
+    }
+
+    /**
+     * Writes a chunk to the pipe without copying it and adds it to the checksums, waits first when the stream is throttled
+     */
+    void write(ByteString buffer) throws IOException, InterruptedException {
+        if (throttle != null) {
+            throttle.acquire(buffer.size());
+        }
+        if (pipeOutput == null || !pipeOutput.writesTo(pipe)) {
+            pipeOutput = new OutputStreamByteOutput(pipe);
+        }
+        pipeOutput.write(buffer);
+        if (checksummer != null) {
+            checksummer.update(buffer);
+        }
+    }
+
+    /**
+     * Limits the rate of the stream by the limits of the filesystem it writes to
+     */
+    void throttle(FileSystem filesystem) {
+        if (throttle == null) {
+            throttle = throttles.open(client, filesystem);
+        }
+    }
+
+    long getThrottledMillis() {
+        return throttle == null ? 0 : throttle.getThrottledMillis();
+    }
+
+    /**
+     * Drops cached metadata of the written file now and when the pipe is closed
+     */
+    void invalidateOnClose(MetadataCaches caches, FileSystem filesystem, Path path) {
+        metadataCaches = caches;
+        writtenFileSystem = filesystem;
+        writtenPath = path;
+        caches.invalidate(filesystem, path);
+    }
+
+    /**
+     * @return response to send when all chunks have been written
+     */
+    abstract R response();
+
+    /**
+     * Queues handling of an incoming chunk, the next chunk is requested from the client once it has been handled
+     */
+    void submitChunk(Task task) {
+        submit(() -> {
+            task.run();
+            if (callObserver != null) {
+                callObserver.request(1);
+            }
+        });
     }
 
     public void onError(Throwable t) {
-        if (pipe != null) {
-            try {
-                pipe.close();
-            } catch (IOException e) {
-                responseObserver.onError(mapException(e));
+        submit(() -> {
+            done = true;
+            abortPipe();
+            responseObserver.onError(mapException(t));
+        });
+    }
+
+    public void onCompleted() {
+        submit(() -> {
+            done = true;
+            closePipe();
+            responseObserver.onNext(response());
+            responseObserver.onCompleted();
+        });
+    }
+
+    private void cancel() {
+        cancelled = true;
+        // when the queue is full the writer is busy and will notice the cancellation itself
+        if (queue.offer(() -> {})) {
+            startDraining();
+        }
+    }
+
+    private void submit(Task task) {
+        try {
+            // without flow control the client can outpace the writer, then wait for room in the queue
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        startDraining();
+    }
+
+    private void startDraining() {
+        synchronized (this) {
+            if (draining) {
+                return;
             }
+            draining = true;
         }
-        responseObserver.onError(mapException(t));
+        executor.execute(this::drain);
     }
 
-    public void onCompleted() {
+    private void drain() {
+        while (true) {
+            Task task;
+            synchronized (this) {
+                task = queue.poll();
+                if (task == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            run(task);
+        }
+    }
+
+    private void run(Task task) {
+        if (done) {
+            // drop what comes after an error or the end of the stream
+            return;
+        }
+        if (cancelled) {
+            done = true;
+            abortPipe();
+            return;
+        }
+        try {
+            task.run();
+        } catch (Exception e) {
+            done = true;
+            abortPipe();
+            responseObserver.onError(mapException(e));
+        }
+    }
+
+    /**
+     * Ends the pipe of a stream which failed or was cancelled, closes it unless a subclass can drop what was written
+     */
+    void abortPipe() {
+        closePipe();
+    }
+
+    void closePipe() {
         if (pipe != null) {
             try {
                 pipe.close();
@@ -44,7 +221,12 @@ public class Broadcaster {
                 LOGGER.warn("Error from server", e);
             }
         }
-        responseObserver.onNext(empty());
-        responseObserver.onCompleted();
+        if (writtenPath != null) {
+            metadataCaches.invalidate(writtenFileSystem, writtenPath);
+        }
+        // the stream has ended
+        if (throttle != null) {
+            throttle.close();
+        }
     }
 }
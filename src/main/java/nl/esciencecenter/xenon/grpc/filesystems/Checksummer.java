@@ -0,0 +1,157 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+import com.google.protobuf.ByteOutput;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Computes checksums of the chunks of a stream as they pass through.
+
+    CRC32C is cheap and always computed, SHA-256 is only computed when asked for.
+ */
+class Checksummer {
+    // CRC32C polynomial in reversed bit order
+    private static final long CRC32C_POLYNOMIAL = 0x82F63B78L;
+
+    private final CRC32C crc32c = new CRC32C();
+    private final MessageDigest sha256;
+
+    // Receives the bytes backing a chunk, read only views would make the checksums copy the bytes
+    private final ByteOutput output = new ByteOutput() {
+        @Override
+        public void write(byte value) {
+            write(new byte[] {value}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] value, int offset, int length) {
+            crc32c.update(value, offset, length);
+            if (sha256 != null) {
+                sha256.update(value, offset, length);
+            }
+        }
+
+        @Override
+        public void writeLazy(byte[] value, int offset, int length) {
+            write(value, offset, length);
+        }
+
+        @Override
+        public void write(ByteBuffer value) {
+            crc32c.update(value.duplicate());
+            if (sha256 != null) {
+                sha256.update(value.duplicate());
+            }
+        }
+
+        @Override
+        public void writeLazy(ByteBuffer value) {
+            write(value);
+        }
+    };
+
+    Checksummer(boolean sha256) {
+        this.sha256 = sha256 ? newSha256() : null;
+    }
+
+    void update(ByteString buffer) {
+        try {
+            UnsafeByteOperations.unsafeWriteTo(buffer, output);
+        } catch (IOException e) {
+            // output does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    long getCrc32c() {
+        return crc32c.getValue();
+    }
+
+    XenonProto.Checksums getChecksums() {
+        XenonProto.Checksums.Builder builder = XenonProto.Checksums.newBuilder().setCrc32C((int) crc32c.getValue());
+        if (sha256 != null) {
+            builder.setSha256(UnsafeByteOperations.unsafeWrap(sha256.digest()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Combines CRC32C checksums of two consecutive blocks of bytes into the CRC32C of the concatenation of the blocks.
+     *
+     * Same algorithm as crc32_combine() of zlib, which works for any reflected 32 bit CRC.
+     *
+     * @param crc1 checksum of first block
+     * @param crc2 checksum of second block
+     * @param length2 number of bytes in second block
+     */
+    static long combineCrc32c(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        // operator for one zero bit
+        odd[0] = CRC32C_POLYNOMIAL;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // operators for two and four zero bits
+        square(even, odd);
+        square(odd, even);
+        // apply zero bytes of second block to first checksum
+        long crc = crc1;
+        long length = length2;
+        do {
+            square(even, odd);
+            if ((length & 1) != 0) {
+                crc = times(even, crc);
+            }
+            length >>= 1;
+            if (length == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length & 1) != 0) {
+                crc = times(odd, crc);
+            }
+            length >>= 1;
+        } while (length != 0);
+        return crc ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        long remaining = vector;
+        for (int i = 0; remaining != 0; i++, remaining >>>= 1) {
+            if ((remaining & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.google.protobuf.ByteString;
+import io.grpc.StatusException;
+
+/*
+    Source of the chunks of a readFromFile response stream
+ */
+interface ChunkReader extends Closeable {
+    /**
+     * Skips bytes at start of file
+     *
+     * @throws StatusException with OUT_OF_RANGE status when file has less bytes
+     */
+    void skip(long n) throws IOException, StatusException;
+
+    /**
+     * Reads size bytes or less when end of file is reached
+     *
+     * @return empty when at end of file
+     */
+    ByteString read(int size) throws IOException;
+}
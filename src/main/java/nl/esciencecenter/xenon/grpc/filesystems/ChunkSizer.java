@@ -0,0 +1,61 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+/*
+    Decides how many bytes to put in the next chunk of a readFromFile response stream.
+
+    A fixed chunk size is used when the client asked for one.
+    Otherwise the chunk size follows the measured throughput of the stream,
+    so that sending a chunk takes about TARGET_NANOS.
+    Fast streams get large chunks with little per message overhead and
+    slow streams get small chunks which arrive without much delay.
+ */
+class ChunkSizer {
+    static final int DEFAULT_CHUNK_SIZE = 8192;
+    static final int MAX_ADAPTIVE_CHUNK_SIZE = 1024 * 1024;
+    // Default maximum message size of gRPC is 4MiB, leave room for the other fields of the message
+    static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024 - 1024;
+    private static final long TARGET_NANOS = 10_000_000L;
+
+    private final boolean adaptive;
+    private int size;
+    private long lastSent = -1;
+
+    /**
+     * @param requestedSize chunk size asked for by client, 0 for adaptive chunk size
+     */
+    ChunkSizer(int requestedSize) {
+        adaptive = requestedSize <= 0;
+        if (adaptive) {
+            size = DEFAULT_CHUNK_SIZE;
+        } else {
+            size = Math.min(requestedSize, MAX_CHUNK_SIZE);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Records that a chunk has been sent.
+     *
+     * The time between two sent chunks includes reading from the file and waiting for the client,
+     * so it reflects the throughput of the whole stream.
+     *
+     * @param bytes number of bytes in sent chunk
+     */
+    void sent(int bytes) {
+        if (!adaptive) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (lastSent >= 0) {
+            long elapsed = Math.max(1, now - lastSent);
+            long ideal = bytes * TARGET_NANOS / elapsed;
+            // change gradually, a single slow or fast chunk should not swing the size
+            long next = Math.max(size / 2, Math.min((long) size * 2, ideal));
+            size = (int) Math.max(DEFAULT_CHUNK_SIZE, Math.min(MAX_ADAPTIVE_CHUNK_SIZE, next));
+        }
+        lastSent = now;
+    }
+}
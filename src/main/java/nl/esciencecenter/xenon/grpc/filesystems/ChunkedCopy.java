@@ -0,0 +1,402 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static nl.esciencecenter.xenon.grpc.filesystems.MapUtils.mapCopyStatusErrorType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.protobuf.ByteString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.CopyCancelledException;
+import nl.esciencecenter.xenon.filesystems.CopyMode;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAlreadyExistsException;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Copies a single large file to a filesystem of the file adaptor in chunks which are copied at the same time.
+
+    Xenon can only write a file as a single stream, but a local file can be written at any position with a file channel.
+    Each chunk reads its range of the source over its own Xenon input stream, or directly when the source is local too.
+    A failed chunk is retried on its own from the last byte it wrote, the other chunks are not affected.
+    The copy fails when a chunk fails more than MAX_ATTEMPTS times, the partially written file is left in place.
+ */
+class ChunkedCopy implements ServerCopy {
+    static final String ID_PREFIX = "CHUNKED-";
+    static final int MAX_PARALLELISM = 16;
+    // Files smaller than two chunks are copied by Xenon
+    static final long MIN_CHUNK_SIZE = 64L * 1024 * 1024;
+    // Chunks grow for huge files so the status message stays small
+    static final int MAX_CHUNKS = 1024;
+    static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 500;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChunkedCopy.class);
+
+    private final String id = ID_PREFIX + UUID.randomUUID().toString();
+    private final FileSystem source;
+    private final Path sourcePath;
+    private final FileSystem target;
+    private final Path targetPath;
+    private final java.nio.file.Path localTarget;
+    private final long size;
+    private final CopyMode mode;
+    private final int parallelism;
+    private final CopyLimits limits;
+    private final Throttle throttle;
+    private final Executor executor;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final AtomicInteger nextChunk = new AtomicInteger();
+
+    // Guarded by this
+    private boolean started = false;
+    private int chunksDone = 0;
+    private boolean done = false;
+    private XenonException error = null;
+    private volatile boolean cancelled = false;
+
+    private static class Chunk {
+        private final long offset;
+        private final long length;
+        private volatile long bytesCopied = 0;
+        private volatile int attempts = 0;
+        private volatile boolean done = false;
+
+        Chunk(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    static boolean isChunkedId(String id) {
+        return id.startsWith(ID_PREFIX);
+    }
+
+    /**
+     * Each chunk reads the source from its own stream, so the streams of the source must skip to the start of the chunk without reading.
+     *
+     * @return whether a file of size may be copied in chunks from source to target
+     */
+    static boolean canCopy(FileSystem source, FileSystem target, Path targetPath, long size) {
+        return size >= 2 * MIN_CHUNK_SIZE && InputStreamChunkReader.skipsWithoutReading(source) && LocalFileChunkReader.localPath(target, targetPath) != null;
+    }
+
+    /**
+     * @param size size of source file in bytes, file must be at least two chunks large
+     * @param mode CREATE, REPLACE or IGNORE
+     */
+    ChunkedCopy(FileSystem source, Path sourcePath, FileSystem target, Path targetPath, long size, CopyMode mode, int parallelism, CopyLimits limits, Throttle throttle, Executor executor) {
+        this(source, sourcePath, target, targetPath, size, Math.max(MIN_CHUNK_SIZE, (size + MAX_CHUNKS - 1) / MAX_CHUNKS), mode, parallelism, limits, throttle, executor);
+    }
+
+    ChunkedCopy(FileSystem source, Path sourcePath, FileSystem target, Path targetPath, long size, long chunkSize, CopyMode mode, int parallelism, CopyLimits limits, Throttle throttle, Executor executor) {
+        this.source = source;
+        this.sourcePath = sourcePath;
+        this.target = target;
+        this.targetPath = targetPath;
+        this.localTarget = LocalFileChunkReader.localPath(target, targetPath);
+        this.size = size;
+        this.mode = mode;
+        this.parallelism = Math.min(parallelism, MAX_PARALLELISM);
+        this.limits = limits;
+        this.throttle = throttle;
+        this.executor = executor;
+        for (long offset = 0; offset < size; offset += chunkSize) {
+            chunks.add(new Chunk(offset, Math.min(chunkSize, size - offset)));
+        }
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public List<FileSystem> getFileSystems() {
+        return Arrays.asList(source, target);
+    }
+
+    @Override
+    public void start() {
+        executor.execute(this::dispatch);
+    }
+
+    private void dispatch() {
+        FileChannel channel;
+        try {
+            limits.acquire(source, target);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish(new CopyCancelledException(source.getAdaptorName(), "Copy cancelled"));
+            return;
+        }
+        if (cancelled) {
+            limits.release(source, target);
+            finish(new CopyCancelledException(source.getAdaptorName(), "Copy cancelled"));
+            return;
+        }
+        try {
+            channel = open();
+        } catch (XenonException e) {
+            limits.release(source, target);
+            finish(e);
+            return;
+        }
+        if (channel == null) {
+            // IGNORE mode and target exists
+            limits.release(source, target);
+            finish(null);
+            return;
+        }
+        synchronized (this) {
+            started = true;
+        }
+        int workers = Math.min(parallelism, chunks.size());
+        AtomicInteger running = new AtomicInteger(workers);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> {
+                try {
+                    copyChunks(channel);
+                } finally {
+                    // last worker finishes the copy, also when a worker died unexpectedly
+                    if (running.decrementAndGet() == 0) {
+                        close(channel);
+                        limits.release(source, target);
+                        finish(null);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return channel to write target file, null when it exists and mode is IGNORE
+     */
+    private FileChannel open() throws XenonException {
+        Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.WRITE);
+        if (mode == CopyMode.REPLACE) {
+            options.add(StandardOpenOption.CREATE);
+            options.add(StandardOpenOption.TRUNCATE_EXISTING);
+        } else {
+            options.add(StandardOpenOption.CREATE_NEW);
+        }
+        try {
+            return FileChannel.open(localTarget, options);
+        } catch (java.nio.file.FileAlreadyExistsException e) {
+            if (mode == CopyMode.IGNORE) {
+                return null;
+            }
+            throw new PathAlreadyExistsException(target.getAdaptorName(), "Destination path already exists: " + targetPath);
+        } catch (IOException e) {
+            throw new XenonException(target.getAdaptorName(), "Unable to open destination " + targetPath, e);
+        }
+    }
+
+    private void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.debug("Unable to close destination {} of copy {}", targetPath, id, e);
+        }
+    }
+
+    // Worker which copies chunks until all have been taken or the copy failed
+    private void copyChunks(FileChannel channel) {
+        for (int index = nextChunk.getAndIncrement(); index < chunks.size(); index = nextChunk.getAndIncrement()) {
+            Chunk chunk = chunks.get(index);
+            try {
+                copyChunk(channel, chunk);
+            } catch (XenonException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Chunk at offset {} of copy {} failed unexpectedly", chunk.offset, id, e);
+                fail(new XenonException(source.getAdaptorName(), "Chunk at offset " + chunk.offset + " failed: " + e.getMessage(), e));
+            }
+            if (isStopped()) {
+                return;
+            }
+        }
+    }
+
+    private void copyChunk(FileChannel channel, Chunk chunk) throws XenonException {
+        while (true) {
+            if (cancelled) {
+                throw new CopyCancelledException(source.getAdaptorName(), "Copy cancelled");
+            }
+            chunk.attempts++;
+            try {
+                if (!transfer(channel, chunk)) {
+                    // another chunk failed
+                    return;
+                }
+                chunk.done = true;
+                synchronized (this) {
+                    chunksDone++;
+                }
+                return;
+            } catch (IOException | XenonException e) {
+                if (cancelled) {
+                    throw new CopyCancelledException(source.getAdaptorName(), "Copy cancelled");
+                }
+                if (chunk.attempts >= MAX_ATTEMPTS) {
+                    if (e instanceof XenonException) {
+                        throw (XenonException) e;
+                    }
+                    throw new XenonException(source.getAdaptorName(), "Chunk at offset " + chunk.offset + " failed " + chunk.attempts + " times: " + e.getMessage(), e);
+                }
+                LOGGER.debug("Retrying chunk at offset {} of copy {}", chunk.offset, id, e);
+                sleep(RETRY_DELAY_MILLIS * chunk.attempts);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CopyCancelledException(source.getAdaptorName(), "Copy cancelled");
+            }
+        }
+    }
+
+    /**
+     * Copies the rest of a chunk, resuming after the bytes written by an earlier attempt
+     *
+     * @return false when stopped before the chunk was copied
+     */
+    private boolean transfer(FileChannel channel, Chunk chunk) throws IOException, XenonException, InterruptedException {
+        long position = chunk.offset + chunk.bytesCopied;
+        long end = chunk.offset + chunk.length;
+        try (ChunkReader reader = openReader()) {
+            reader.skip(position);
+            while (position < end) {
+                if (isStopped()) {
+                    return false;
+                }
+                ByteString buffer = reader.read((int) Math.min(BUFFER_SIZE, end - position));
+                if (buffer.isEmpty()) {
+                    throw new IOException("Unexpected end of file at offset " + position);
+                }
+                throttle.acquire(buffer.size());
+                for (ByteBuffer bytes : buffer.asReadOnlyByteBufferList()) {
+                    while (bytes.hasRemaining()) {
+                        position += channel.write(bytes, position);
+                    }
+                }
+                chunk.bytesCopied = position - chunk.offset;
+            }
+            return true;
+        } catch (io.grpc.StatusException e) {
+            // source shrunk since the copy started
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private ChunkReader openReader() throws XenonException {
+        ChunkReader reader = LocalFileChunkReader.open(source, sourcePath);
+        if (reader != null) {
+            return reader;
+        }
+        return new InputStreamChunkReader(source.readFromFile(sourcePath));
+    }
+
+    private void sleep(long millis) throws CopyCancelledException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CopyCancelledException(source.getAdaptorName(), "Copy cancelled");
+        }
+    }
+
+    private synchronized boolean isStopped() {
+        return cancelled || error != null;
+    }
+
+    private synchronized void fail(XenonException e) {
+        if (error == null) {
+            error = e;
+        }
+    }
+
+    private synchronized void finish(XenonException e) {
+        throttle.close();
+        if (e != null) {
+            fail(e);
+        } else if (cancelled && chunksDone < chunks.size() && started) {
+            fail(new CopyCancelledException(source.getAdaptorName(), "Copy cancelled"));
+        }
+        done = true;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized XenonProto.CopyStatus getStatus() {
+        String state;
+        if (done) {
+            state = error == null ? "DONE" : "FAILED";
+        } else {
+            state = started ? "RUNNING" : "PENDING";
+        }
+        XenonProto.CopyStatus.Builder builder = XenonProto.CopyStatus.newBuilder()
+            .setCopyOperation(XenonProto.CopyOperation.newBuilder().setId(id))
+            .setBytesToCopy(size)
+            .setDone(done)
+            .setRunning(!done && started)
+            .setState(state);
+        long bytesCopied = 0;
+        for (Chunk chunk : chunks) {
+            bytesCopied += chunk.bytesCopied;
+            builder.addChunks(XenonProto.CopyStatus.Chunk.newBuilder()
+                .setOffset(chunk.offset)
+                .setLength(chunk.length)
+                .setBytesCopied(chunk.bytesCopied)
+                .setAttempts(chunk.attempts)
+                .setDone(chunk.done));
+        }
+        builder.setBytesCopied(bytesCopied).setThrottledMillis(throttle.getThrottledMillis());
+        if (done && error != null) {
+            builder.setErrorMessage(error.getMessage());
+            builder.setErrorType(mapCopyStatusErrorType(error));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public XenonProto.CopyStatus cancel() {
+        cancelled = true;
+        return getStatus();
+    }
+
+    @Override
+    public XenonProto.CopyStatus waitUntilDone(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (this) {
+            while (!done) {
+                if (timeout == 0) {
+                    wait();
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    wait(remaining);
+                }
+            }
+        }
+        return getStatus();
+    }
+}
@@ -0,0 +1,325 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static nl.esciencecenter.xenon.grpc.filesystems.MapUtils.mapCopyStatusErrorType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.CopyCancelledException;
+import nl.esciencecenter.xenon.filesystems.CopyMode;
+import nl.esciencecenter.xenon.filesystems.CopyStatus;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Copies many source paths to destination paths as a single copy operation.
+
+    A dispatcher plans which copies to make, then starts them one by one, as the copy limits allow, and each started copy is awaited on a worker.
+    A failed copy does not stop the batch, its error is reported in the status of the batch once all copies are done.
+    Progress in bytes covers the finished and running copies, so bytes to copy grows as copies start.
+ */
+class CopyBatch implements ServerCopy {
+    static final String ID_PREFIX = "BATCH-";
+    private static final Logger LOGGER = LoggerFactory.getLogger(CopyBatch.class);
+
+    interface Planner {
+        /**
+         * @return copies to make, a failure fails the whole batch
+         */
+        List<Item> plan() throws XenonException, InterruptedException;
+    }
+
+    static class Item {
+        private final Path source;
+        private final Path destination;
+
+        Item(Path source, Path destination) {
+            this.source = source;
+            this.destination = destination;
+        }
+
+        Path getSource() {
+            return source;
+        }
+
+        Path getDestination() {
+            return destination;
+        }
+    }
+
+    private final String id = ID_PREFIX + UUID.randomUUID().toString();
+    private final FileSystem source;
+    private final FileSystem target;
+    private final Planner planner;
+    private final CopyMode mode;
+    private final boolean recursive;
+    private final CopyLimits limits;
+    private final Executor executor;
+
+    // Guarded by this
+    // Null until planned
+    private List<Item> items = null;
+    private final Map<Item, String> running = new HashMap<>();
+    private int started = 0;
+    private int copied = 0;
+    private int failed = 0;
+    private long finishedBytesCopied = 0;
+    private long finishedBytesToCopy = 0;
+    private XenonException firstError = null;
+    private boolean cancelled = false;
+
+    static boolean isBatchId(String id) {
+        return id.startsWith(ID_PREFIX);
+    }
+
+    CopyBatch(FileSystem source, FileSystem target, List<Item> items, CopyMode mode, boolean recursive, CopyLimits limits, Executor executor) {
+        this(source, target, () -> items, mode, recursive, limits, executor);
+    }
+
+    CopyBatch(FileSystem source, FileSystem target, Planner planner, CopyMode mode, boolean recursive, CopyLimits limits, Executor executor) {
+        this.source = source;
+        this.target = target;
+        this.planner = planner;
+        this.mode = mode;
+        this.recursive = recursive;
+        this.limits = limits;
+        this.executor = executor;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public List<FileSystem> getFileSystems() {
+        return Arrays.asList(source, target);
+    }
+
+    @Override
+    public void start() {
+        executor.execute(this::dispatch);
+    }
+
+    private void dispatch() {
+        List<Item> planned;
+        try {
+            planned = planner.plan();
+        } catch (XenonException e) {
+            synchronized (this) {
+                items = new ArrayList<>();
+                fail(0, e);
+            }
+            return;
+        } catch (RuntimeException e) {
+            // an unexpected failure of the adaptor must not leave the batch waiting forever for its plan
+            LOGGER.warn("Unable to plan copy batch {}", id, e);
+            synchronized (this) {
+                items = new ArrayList<>();
+                fail(0, new XenonException(source.getAdaptorName(), "Unable to plan copies: " + e.getMessage(), e));
+            }
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            synchronized (this) {
+                items = new ArrayList<>();
+                fail(0, new CopyCancelledException(source.getAdaptorName(), "Copy cancelled"));
+            }
+            return;
+        }
+        synchronized (this) {
+            items = planned;
+            // an empty plan is done right away
+            notifyAll();
+        }
+        try {
+            for (Item item : planned) {
+                synchronized (this) {
+                    if (cancelled) {
+                        break;
+                    }
+                }
+                limits.acquire(source, target);
+                synchronized (this) {
+                    if (cancelled) {
+                        limits.release(source, target);
+                        break;
+                    }
+                    started++;
+                }
+                executor.execute(() -> {
+                    try {
+                        copy(item);
+                    } finally {
+                        limits.release(source, target);
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+        }
+        synchronized (this) {
+            // copies which were never started fail as cancelled
+            int skipped = planned.size() - started;
+            if (skipped > 0) {
+                fail(skipped, new CopyCancelledException(source.getAdaptorName(), "Copy cancelled"));
+            }
+        }
+    }
+
+    private void copy(Item item) {
+        String copyId;
+        try {
+            copyId = source.copy(item.source, target, item.destination, mode, recursive);
+        } catch (XenonException e) {
+            synchronized (this) {
+                fail(1, e);
+            }
+            return;
+        }
+        boolean cancelNow;
+        synchronized (this) {
+            running.put(item, copyId);
+            cancelNow = cancelled;
+        }
+        if (cancelNow) {
+            cancelCopy(copyId);
+        }
+        CopyStatus status = null;
+        XenonException error = null;
+        try {
+            status = source.waitUntilDone(copyId, 0);
+            error = status.hasException() ? status.getException() : null;
+        } catch (XenonException e) {
+            error = e;
+        }
+        synchronized (this) {
+            running.remove(item);
+            if (status != null) {
+                finishedBytesCopied += status.bytesCopied();
+                finishedBytesToCopy += status.bytesToCopy();
+            }
+            if (error == null) {
+                copied++;
+                notifyAll();
+            } else {
+                fail(1, error);
+            }
+        }
+    }
+
+    // Must hold lock
+    private void fail(int count, XenonException error) {
+        failed += count;
+        if (firstError == null) {
+            firstError = error;
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return items != null && copied + failed == items.size();
+    }
+
+    @Override
+    public XenonProto.CopyStatus getStatus() {
+        Map<Item, String> runningCopies;
+        synchronized (this) {
+            runningCopies = new HashMap<>(running);
+        }
+        long runningBytesCopied = 0;
+        long runningBytesToCopy = 0;
+        for (String copyId : runningCopies.values()) {
+            try {
+                CopyStatus status = source.getStatus(copyId);
+                runningBytesCopied += status.bytesCopied();
+                runningBytesToCopy += status.bytesToCopy();
+            } catch (XenonException e) {
+                // copy finished in the meantime, its bytes are counted when its worker is done
+                LOGGER.debug("No status of copy {} of batch {}", copyId, id, e);
+            }
+        }
+        synchronized (this) {
+            boolean done = isDone();
+            String state;
+            if (done) {
+                state = firstError == null ? "DONE" : "FAILED";
+            } else {
+                state = started == 0 ? "PENDING" : "RUNNING";
+            }
+            int planned = items == null ? 0 : items.size();
+            XenonProto.CopyStatus.Builder builder = XenonProto.CopyStatus.newBuilder()
+                .setCopyOperation(XenonProto.CopyOperation.newBuilder().setId(id))
+                .setBytesCopied(finishedBytesCopied + runningBytesCopied)
+                .setBytesToCopy(finishedBytesToCopy + runningBytesToCopy)
+                .setDone(done)
+                .setRunning(!done && started > 0)
+                .setState(state)
+                .setFilesCopied(copied)
+                .setFilesFailed(failed)
+                .setFilesToCopy(planned);
+            if (done && firstError != null && failed == 0) {
+                // planning failed
+                builder.setErrorMessage(firstError.getMessage());
+                builder.setErrorType(mapCopyStatusErrorType(firstError));
+            } else if (done && firstError != null) {
+                builder.setErrorMessage(failed + " of " + planned + " copies failed, first error: " + firstError.getMessage());
+                builder.setErrorType(mapCopyStatusErrorType(firstError));
+            }
+            return builder.build();
+        }
+    }
+
+    @Override
+    public XenonProto.CopyStatus cancel() {
+        List<String> copyIds;
+        synchronized (this) {
+            cancelled = true;
+            copyIds = new ArrayList<>(running.values());
+        }
+        for (String copyId : copyIds) {
+            cancelCopy(copyId);
+        }
+        return getStatus();
+    }
+
+    private void cancelCopy(String copyId) {
+        try {
+            source.cancel(copyId);
+        } catch (XenonException e) {
+            // copy finished in the meantime
+            LOGGER.debug("Unable to cancel copy {} of batch {}", copyId, id, e);
+        }
+    }
+
+    @Override
+    public XenonProto.CopyStatus waitUntilDone(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (this) {
+            while (!isDone()) {
+                if (timeout == 0) {
+                    wait();
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    wait(remaining);
+                }
+            }
+        }
+        return getStatus();
+    }
+}
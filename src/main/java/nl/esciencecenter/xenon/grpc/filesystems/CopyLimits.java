@@ -0,0 +1,70 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+
+/*
+    Limits the number of copies of batches which run at the same time, on the whole server and per filesystem.
+
+    A copy takes a permit of the server and of both its source and destination filesystems.
+ */
+class CopyLimits {
+    static final int DEFAULT_MAX_COPIES = 16;
+    static final int DEFAULT_MAX_COPIES_PER_FILESYSTEM = 4;
+    private static final long RETRY_MILLIS = 10;
+
+    private final int maxCopiesPerFileSystem;
+    private final Semaphore global;
+    private final Map<FileSystem, Semaphore> perFileSystem = new ConcurrentHashMap<>();
+
+    CopyLimits(int maxCopies, int maxCopiesPerFileSystem) {
+        this.maxCopiesPerFileSystem = maxCopiesPerFileSystem;
+        this.global = new Semaphore(maxCopies);
+    }
+
+    /**
+     * Waits until a copy from source to target may start
+     */
+    void acquire(FileSystem source, FileSystem target) throws InterruptedException {
+        global.acquire();
+        try {
+            Semaphore first = permits(source);
+            if (source == target) {
+                first.acquire();
+                return;
+            }
+            Semaphore second = permits(target);
+            // release the first permit while waiting for the second, so batches in opposite directions can not deadlock
+            while (true) {
+                first.acquire();
+                if (second.tryAcquire(RETRY_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+                first.release();
+            }
+        } catch (InterruptedException e) {
+            global.release();
+            throw e;
+        }
+    }
+
+    void release(FileSystem source, FileSystem target) {
+        permits(source).release();
+        if (source != target) {
+            permits(target).release();
+        }
+        global.release();
+    }
+
+    void remove(FileSystem filesystem) {
+        perFileSystem.remove(filesystem);
+    }
+
+    private Semaphore permits(FileSystem filesystem) {
+        return perFileSystem.computeIfAbsent(filesystem, fs -> new Semaphore(maxCopiesPerFileSystem));
+    }
+}
@@ -0,0 +1,93 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static nl.esciencecenter.xenon.grpc.MapUtils.mapException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.stub.ServerCallStreamObserver;
+
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Streams status updates of copy operations until they are done.
+
+    The status of each copy is polled once per interval, so updates are rate limited to one per copy per interval.
+    A status is only sent when it differs from the previous status sent for the copy.
+    When the client is not ready to receive, a poll is skipped, so updates are coalesced instead of buffered.
+ */
+class CopyWatcher {
+    static final long DEFAULT_INTERVAL = 1000;
+    static final long MIN_INTERVAL = 100;
+
+    private final ServerCallStreamObserver<XenonProto.CopyStatus> observer;
+    private final StatusLookup statuses;
+    private final long interval;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    // Last sent status of each copy which is not done yet, null when nothing has been sent yet
+    private final Map<String, XenonProto.CopyStatus> watched = new LinkedHashMap<>();
+    private volatile boolean cancelled = false;
+
+    interface StatusLookup {
+        XenonProto.CopyStatus getStatus(String copyId) throws Exception;
+    }
+
+    /**
+     * @param interval milliseconds between polls, 0 for the default
+     */
+    CopyWatcher(ServerCallStreamObserver<XenonProto.CopyStatus> observer, StatusLookup statuses, List<XenonProto.CopyOperation> copies, long interval, ScheduledExecutorService scheduler, Executor executor) {
+        this.observer = observer;
+        this.statuses = statuses;
+        this.interval = interval == 0 ? DEFAULT_INTERVAL : Math.max(interval, MIN_INTERVAL);
+        this.scheduler = scheduler;
+        this.executor = executor;
+        for (XenonProto.CopyOperation copy : copies) {
+            watched.put(copy.getId(), null);
+        }
+        observer.setOnCancelHandler(() -> cancelled = true);
+    }
+
+    void start() {
+        executor.execute(this::poll);
+    }
+
+    private void poll() {
+        if (cancelled) {
+            return;
+        }
+        try {
+            if (observer.isReady()) {
+                sendChanges();
+            }
+        } catch (Exception e) {
+            observer.onError(mapException(e));
+            return;
+        }
+        if (watched.isEmpty()) {
+            observer.onCompleted();
+            return;
+        }
+        scheduler.schedule(() -> executor.execute(this::poll), interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendChanges() throws Exception {
+        Iterator<Map.Entry<String, XenonProto.CopyStatus>> iterator = watched.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, XenonProto.CopyStatus> entry = iterator.next();
+            XenonProto.CopyStatus status = statuses.getStatus(entry.getKey());
+            if (!status.equals(entry.getValue())) {
+                observer.onNext(status);
+                entry.setValue(status);
+            }
+            if (status.getDone()) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Shares filesystems between create calls with the same adaptor, location, credential and properties.
+
+    A create call with the same request as an open pooled filesystem gets that filesystem instead of making a new connection.
+    Each create call takes a reference, which is released by a close call, the filesystem is only closed when it is no longer referenced.
+    An unreferenced filesystem is kept open for the idle timeout, so a client which closes and creates again reuses the connection.
+
+    Shared filesystems also share their id and working directory, so sharing is only done with an idle timeout, which the server admin opts in to.
+    Without it each create call gets its own filesystem, which is still pooled to remember its request for reconnects.
+ */
+class FileSystemPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemPool.class);
+
+    interface Factory {
+        FileSystem create() throws XenonException;
+    }
+
+    private static class Entry {
+        private final XenonProto.CreateFileSystemRequest key;
+        // Replaced when reconnected
+        private FileSystem filesystem;
+        private int references = 1;
+        // Time since unreferenced, only meaningful when references is 0
+        private long idleSince;
+
+        Entry(XenonProto.CreateFileSystemRequest key, FileSystem filesystem) {
+            this.key = key;
+            this.filesystem = filesystem;
+        }
+    }
+
+    private final long idleTimeout;
+    private final boolean shared;
+    private final LongSupplier clock;
+    // Guarded by this, only holds shared filesystems
+    private final Map<XenonProto.CreateFileSystemRequest, Entry> byKey = new HashMap<>();
+    private final Map<FileSystem, Entry> byFileSystem = new IdentityHashMap<>();
+
+    /**
+     * @param idleTimeout milliseconds an unreferenced filesystem is kept open, 0 closes it right away and does not share filesystems
+     */
+    FileSystemPool(long idleTimeout) {
+        this(idleTimeout, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock current time in milliseconds
+     */
+    FileSystemPool(long idleTimeout, LongSupplier clock) {
+        this.idleTimeout = idleTimeout;
+        this.shared = idleTimeout > 0;
+        this.clock = clock;
+    }
+
+    /**
+     * Takes a reference to an open filesystem of the request, creating it when there is none or filesystems are not shared.
+     *
+     * @param request adaptor, location, credential and properties of the filesystem
+     * @param factory creates the filesystem of the request
+     */
+    FileSystem acquire(XenonProto.CreateFileSystemRequest request, Factory factory) throws XenonException {
+        if (!shared) {
+            FileSystem filesystem = factory.create();
+            synchronized (this) {
+                byFileSystem.put(filesystem, new Entry(request, filesystem));
+            }
+            return filesystem;
+        }
+        Entry stale;
+        synchronized (this) {
+            Entry entry = byKey.get(request);
+            if (entry != null && isOpen(entry.filesystem)) {
+                entry.references++;
+                return entry.filesystem;
+            }
+            stale = entry == null ? null : remove(entry);
+        }
+        if (stale != null) {
+            close(stale.filesystem);
+        }
+        FileSystem filesystem = factory.create();
+        FileSystem raced = null;
+        synchronized (this) {
+            Entry entry = byKey.get(request);
+            if (entry == null) {
+                entry = new Entry(request, filesystem);
+                byKey.put(request, entry);
+                byFileSystem.put(filesystem, entry);
+            } else {
+                // another call connected at the same time, share its filesystem
+                entry.references++;
+                raced = filesystem;
+            }
+            filesystem = entry.filesystem;
+        }
+        if (raced != null) {
+            close(raced);
+        }
+        return filesystem;
+    }
+
+    synchronized boolean isPooled(FileSystem filesystem) {
+        return byFileSystem.containsKey(filesystem);
+    }
+
+    /**
+     * @return request the pooled filesystem was created with, null when not pooled
+     */
+    synchronized XenonProto.CreateFileSystemRequest getRequest(FileSystem filesystem) {
+        Entry entry = byFileSystem.get(filesystem);
+        return entry == null ? null : entry.key;
+    }
+
+    /**
+     * Replaces a pooled filesystem by a new connection of the same request, keeping its references.
+     * The replaced filesystem is not closed.
+     *
+     * @return false when the filesystem is no longer pooled
+     */
+    synchronized boolean replace(FileSystem broken, FileSystem reconnected) {
+        Entry entry = byFileSystem.remove(broken);
+        if (entry == null) {
+            return false;
+        }
+        entry.filesystem = reconnected;
+        byFileSystem.put(reconnected, entry);
+        return true;
+    }
+
+    /**
+     * Releases a reference to a pooled filesystem, closing it when it was the last one and there is no idle timeout
+     *
+     * @return true when the filesystem is no longer referenced
+     */
+    boolean release(FileSystem filesystem) {
+        return release(filesystem, false);
+    }
+
+    /**
+     * Releases all references to a pooled filesystem, like every create call closed it
+     */
+    void releaseAll(FileSystem filesystem) {
+        release(filesystem, true);
+    }
+
+    private boolean release(FileSystem filesystem, boolean all) {
+        synchronized (this) {
+            Entry entry = byFileSystem.get(filesystem);
+            if (entry == null) {
+                return true;
+            }
+            entry.references = all ? 0 : entry.references - 1;
+            if (entry.references > 0) {
+                return false;
+            }
+            if (idleTimeout > 0) {
+                entry.idleSince = clock.getAsLong();
+                return true;
+            }
+            remove(entry);
+        }
+        close(filesystem);
+        return true;
+    }
+
+    /**
+     * Closes the filesystems which have not been referenced for longer than the idle timeout
+     */
+    void evictIdle() {
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            long now = clock.getAsLong();
+            for (Entry entry : new ArrayList<>(byFileSystem.values())) {
+                if (entry.references == 0 && now - entry.idleSince >= idleTimeout) {
+                    evicted.add(remove(entry));
+                }
+            }
+        }
+        for (Entry entry : evicted) {
+            LOGGER.debug("Closing idle filesystem {} at {}", entry.key.getAdaptor(), entry.key.getLocation());
+            close(entry.filesystem);
+        }
+    }
+
+    /**
+     * Closes all pooled filesystems, referenced or not
+     */
+    void closeAll() {
+        List<Entry> entries;
+        synchronized (this) {
+            entries = new ArrayList<>(byFileSystem.values());
+            byKey.clear();
+            byFileSystem.clear();
+        }
+        for (Entry entry : entries) {
+            close(entry.filesystem);
+        }
+    }
+
+    synchronized int size() {
+        return byFileSystem.size();
+    }
+
+    // Must hold lock
+    private Entry remove(Entry entry) {
+        byKey.remove(entry.key, entry);
+        byFileSystem.remove(entry.filesystem);
+        return entry;
+    }
+
+    private static boolean isOpen(FileSystem filesystem) {
+        try {
+            return filesystem.isOpen();
+        } catch (XenonException e) {
+            return false;
+        }
+    }
+
+    private static void close(FileSystem filesystem) {
+        try {
+            filesystem.close();
+        } catch (XenonException e) {
+            LOGGER.warn("Unable to close filesystem {}", filesystem.getLocation(), e);
+        }
+    }
+}
@@ -14,16 +14,30 @@ import static nl.esciencecenter.xenon.grpc.filesystems.MapUtils.writeFileSystems
 import static nl.esciencecenter.xenon.grpc.filesystems.MapUtils.writePath;
 import static nl.esciencecenter.xenon.utils.LocalFileSystemUtils.getLocalFileSystems;
 
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
-import com.google.protobuf.ByteString;
 import io.grpc.Status;
 import io.grpc.StatusException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.credentials.Credential;
@@ -35,12 +49,50 @@ import nl.esciencecenter.xenon.filesystems.FileSystemAdaptorDescription;
 import nl.esciencecenter.xenon.filesystems.Path;
 import nl.esciencecenter.xenon.filesystems.PathAttributes;
 import nl.esciencecenter.xenon.filesystems.PosixFilePermission;
+import nl.esciencecenter.xenon.grpc.Backoff;
+import nl.esciencecenter.xenon.grpc.ClientIdentity;
+import nl.esciencecenter.xenon.grpc.ConnectLimits;
 import nl.esciencecenter.xenon.grpc.FileSystemServiceGrpc;
+import nl.esciencecenter.xenon.grpc.Leases;
 import nl.esciencecenter.xenon.grpc.XenonProto;
 
 public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceImplBase {
-    private static final int BUFFER_SIZE = 8192;
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemService.class);
+    private static final int DEFAULT_LIST_BATCH_SIZE = 1000;
+    // Maximum milliseconds between checks for idle filesystems and expired leases
+    private static final long FILESYSTEM_EVICTION_INTERVAL = 1000;
+    // Maximum milliseconds between attempts to reconnect a broken filesystem
+    private static final long MAX_RECONNECT_DELAY = 5 * 60 * 1000L;
     private final Map<String, FileSystem> fileSystems;
+    private final Map<String, MultipartUpload> multipartUploads = new ConcurrentHashMap<>();
+    // Runs work which should not block the gRPC threads, like parallel reads
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "FileSystemService worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Triggers delayed work, which is then run on the executor
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "FileSystemService scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile MetadataCaches metadataCaches = new MetadataCaches(0, 0);
+    private volatile Throttles throttles = new Throttles(0, 0, 0, this::renewLease);
+    private volatile FileSystemPool fileSystemPool = new FileSystemPool(0);
+    private volatile Leases<FileSystem> leases = new Leases<>(0);
+    private volatile ConnectLimits connectLimits = new ConnectLimits(0);
+    private volatile Backoff<FileSystem> reconnects = new Backoff<>(FILESYSTEM_EVICTION_INTERVAL, MAX_RECONNECT_DELAY);
+    private final AtomicBoolean checking = new AtomicBoolean();
+    private final Map<FileSystem, AttributeSupport> attributeSupports = new ConcurrentHashMap<>();
+    private final Map<FileSystem, Semaphore> lookupPermits = new ConcurrentHashMap<>();
+    private final Map<String, ServerCopy> serverCopies = new ConcurrentHashMap<>();
+    // Copies of the Xenon library which have not yet returned their final status to the client
+    private final Set<XenonCopy> xenonCopies = ConcurrentHashMap.newKeySet();
+    // Told about each use of a filesystem, like the scheduler service which renews the lease of the scheduler of a filesystem
+    private volatile Consumer<FileSystem> onUse = filesystem -> { };
+    private final CopyLimits copyLimits = new CopyLimits(CopyLimits.DEFAULT_MAX_COPIES, CopyLimits.DEFAULT_MAX_COPIES_PER_FILESYSTEM);
+    private final SpoolLimit spoolLimit = new SpoolLimit(SpoolLimit.DEFAULT_MAX_SIZE);
 
     public FileSystemService(Map<String, FileSystem> fileSystems) {
         super();
@@ -52,18 +104,228 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
         this.fileSystems = new ConcurrentHashMap<>();
     }
 
+    /**
+     * Caches results of exists, getAttributes and non-recursive list calls, disabled by default.
+     *
+     * @param maxEntries maximum number of cached paths per filesystem, 0 disables the cache
+     * @param ttlMillis time in milliseconds after which a cached path is looked up again, 0 disables the cache
+     */
+    public void setMetadataCache(int maxEntries, long ttlMillis) {
+        metadataCaches = new MetadataCaches(maxEntries, ttlMillis);
+    }
+
+    /**
+     * @param streamRate maximum bytes per second of each readFromFile, writeToFile, appendToFile, uploadPart or chunked copy stream, 0 for unlimited
+     * @param fileSystemRate maximum bytes per second of all streams of a filesystem together, 0 for unlimited
+     * @param clientRate maximum bytes per second of all streams of a client together, 0 for unlimited
+     */
+    public void setRateLimits(long streamRate, long fileSystemRate, long clientRate) {
+        throttles = new Throttles(streamRate, fileSystemRate, clientRate, this::renewLease);
+    }
+
+    /**
+     * Keeps filesystems which are no longer referenced open for a while, so creating them again reuses their connection.
+     * Create calls with the same request then share a filesystem, including its id and working directory.
+     * Must be called before any filesystem is created.
+     *
+     * @param idleTimeout milliseconds an unreferenced filesystem is kept open, 0 closes it right away and gives each create call its own filesystem
+     */
+    public void setFileSystemIdleTimeout(long idleTimeout) {
+        FileSystemPool pool = new FileSystemPool(idleTimeout);
+        fileSystemPool = pool;
+        if (idleTimeout > 0) {
+            long interval = Math.min(idleTimeout, FILESYSTEM_EVICTION_INTERVAL);
+            scheduler.scheduleWithFixedDelay(() -> executor.execute(pool::evictIdle), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Closes filesystems which have not been used for a while, in case their client forgot to close them or crashed.
+     * A filesystem with running copies or multipart uploads of the server is kept open.
+     *
+     * @param idleTimeout milliseconds after which an unused filesystem is closed, 0 never closes them
+     */
+    public void setLeaseTimeout(long idleTimeout) {
+        leases = new Leases<>(idleTimeout);
+        if (idleTimeout > 0) {
+            long interval = Math.min(idleTimeout, FILESYSTEM_EVICTION_INTERVAL);
+            scheduler.scheduleWithFixedDelay(() -> executor.execute(this::closeExpiredFileSystems), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param connectLimits limits on connections made to the same host at the same time, shared with the scheduler service
+     */
+    public void setConnectLimits(ConnectLimits connectLimits) {
+        this.connectLimits = connectLimits;
+    }
+
+    /**
+     * Checks in the background whether filesystems are still connected, with a cheap call over their connection, and reconnects the filesystems of create calls whose connection broke,
+     * so calls of clients do not fail on a dead connection. Failed reconnects are retried with exponential backoff.
+     *
+     * @param interval milliseconds between checks, 0 disables them
+     */
+    public void setHealthCheckInterval(long interval) {
+        if (interval > 0) {
+            reconnects = new Backoff<>(interval, Math.max(interval, MAX_RECONNECT_DELAY));
+            scheduler.scheduleWithFixedDelay(() -> executor.execute(this::checkFileSystems), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void checkFileSystems() {
+        if (!checking.compareAndSet(false, true)) {
+            // previous check is still reconnecting
+            return;
+        }
+        try {
+            Set<FileSystem> registered = Collections.newSetFromMap(new IdentityHashMap<>());
+            registered.addAll(fileSystems.values());
+            for (FileSystem filesystem : registered) {
+                XenonProto.CreateFileSystemRequest request = fileSystemPool.getRequest(filesystem);
+                // only filesystems of create calls can be reconnected, others are not known how they were created
+                if (request != null && reconnects.isDue(filesystem) && !isHealthy(filesystem)) {
+                    reconnect(filesystem, request);
+                }
+            }
+        } finally {
+            checking.set(false);
+        }
+    }
+
+    private void reconnect(FileSystem broken, XenonProto.CreateFileSystemRequest request) {
+        FileSystem reconnected;
+        try {
+            reconnected = connect(request);
+        } catch (XenonException e) {
+            long delay = reconnects.failed(broken);
+            LOGGER.warn("Unable to reconnect filesystem {} at {}, retrying in {} ms", request.getAdaptor(), request.getLocation(), delay, e);
+            return;
+        }
+        try {
+            // relative paths of the client must keep resolving against the same directory
+            reconnected.setWorkingDirectory(broken.getWorkingDirectory());
+        } catch (XenonException e) {
+            closeQuietly(reconnected);
+            long delay = reconnects.failed(broken);
+            LOGGER.warn("Unable to restore working directory of filesystem {} at {}, retrying in {} ms", request.getAdaptor(), request.getLocation(), delay, e);
+            return;
+        }
+        reconnects.succeeded(broken);
+        // ids are swapped before the pool, so a close call in between closes the reconnected filesystem
+        fileSystems.replaceAll((id, value) -> value == broken ? reconnected : value);
+        if (!fileSystemPool.replace(broken, reconnected)) {
+            // closed in the meantime
+            fileSystems.values().removeIf(value -> value == reconnected);
+            closeQuietly(reconnected);
+            return;
+        }
+        leases.end(broken);
+        leases.start(reconnected);
+        forget(broken);
+        closeQuietly(broken);
+        LOGGER.info("Reconnected filesystem {} at {}", request.getAdaptor(), request.getLocation());
+    }
+
+    // isOpen() is only a local flag for most adaptors, which stays set when the connection drops,
+    // so a cheap call over the connection is made as well
+    private static boolean isHealthy(FileSystem filesystem) {
+        try {
+            if (!filesystem.isOpen()) {
+                return false;
+            }
+            filesystem.exists(filesystem.getWorkingDirectory());
+            return true;
+        } catch (XenonException e) {
+            return false;
+        }
+    }
+
+    void closeExpiredFileSystems() {
+        abortIdleMultipartUploads(leases.getIdleTimeout());
+        for (FileSystem filesystem : leases.expired()) {
+            if (isBusy(filesystem)) {
+                leases.renew(filesystem);
+                continue;
+            }
+            leases.end(filesystem);
+            List<String> ids = fileSystems.entrySet().stream()
+                .filter(entry -> entry.getValue() == filesystem)
+                .map(Map.Entry::getKey)
+                .filter(id -> fileSystems.remove(id, filesystem))
+                .collect(Collectors.toList());
+            if (ids.isEmpty()) {
+                // closed in the meantime
+                continue;
+            }
+            LOGGER.info("Closing filesystem {}, it has not been used for {} ms", ids.get(0), leases.getIdleTimeout());
+            if (fileSystemPool.isPooled(filesystem)) {
+                fileSystemPool.releaseAll(filesystem);
+            } else {
+                closeQuietly(filesystem);
+            }
+            forget(filesystem);
+        }
+    }
+
+    // Transfers renew the leases of their filesystems with each chunk, so long transfers keep them open
+    private void renewLease(FileSystem filesystem) {
+        leases.renew(filesystem);
+        onUse.accept(filesystem);
+    }
+
+    /**
+     * @param onUse called on each use of a filesystem, also for filesystems without lease of this service
+     */
+    public void setOnUse(Consumer<FileSystem> onUse) {
+        this.onUse = onUse;
+    }
+
+    /**
+     * @return true while a copy reads or writes the filesystem or a part is uploaded to it
+     */
+    public boolean isBusy(FileSystem filesystem) {
+        return serverCopies.values().stream().anyMatch(copy -> copy.uses(filesystem) && !copy.isDone()) ||
+            xenonCopies.stream().anyMatch(copy -> copy.uses(filesystem) && !copy.isDone()) ||
+            multipartUploads.values().stream().anyMatch(upload -> upload.getFileSystem() == filesystem && upload.isActive());
+    }
+
+    // Uploads abandoned by their client would otherwise keep their parts on disk forever
+    private void abortIdleMultipartUploads(long idleTimeout) {
+        multipartUploads.entrySet().removeIf(entry -> {
+            if (entry.getValue().getIdleMillis() < idleTimeout) {
+                return false;
+            }
+            try {
+                entry.getValue().abort();
+            } catch (StatusException e) {
+                // completed, aborted or continued in the meantime
+                LOGGER.debug("Unable to abort idle multipart upload {}", entry.getKey(), e);
+                return false;
+            }
+            LOGGER.info("Aborted multipart upload {}, it has not been used for {} ms", entry.getKey(), idleTimeout);
+            return true;
+        });
+    }
+
+    private static void closeQuietly(FileSystem filesystem) {
+        try {
+            filesystem.close();
+        } catch (XenonException e) {
+            LOGGER.warn("Unable to close filesystem {}", filesystem.getLocation(), e);
+        }
+    }
+
     @Override
     public void create(XenonProto.CreateFileSystemRequest request, StreamObserver<XenonProto.FileSystem> responseObserver) {
         try {
             Credential credential = mapCredential(request);
-            FileSystem fileSystem = FileSystem.create( // NOSONAR, close is called on termination of server
-                    request.getAdaptor(),
-                    request.getLocation(),
-                    credential,
-                    request.getPropertiesMap()
-            );
+            // with an idle timeout an equivalent filesystem which is already open is shared instead of connecting again
+            FileSystem fileSystem = fileSystemPool.acquire(request, () -> connect(request));
 
-            String fileSystemId = putFileSystem(fileSystem, usernameOfCredential(credential));
+            String fileSystemId = getFileSystemId(fileSystem, usernameOfCredential(credential));
+            fileSystems.putIfAbsent(fileSystemId, fileSystem);
+            leases.start(fileSystem);
 
             XenonProto.FileSystem value = XenonProto.FileSystem.newBuilder()
                     .setId(fileSystemId)
@@ -75,6 +337,16 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
         }
     }
 
+    private FileSystem connect(XenonProto.CreateFileSystemRequest request) throws XenonException {
+        Credential credential = mapCredential(request);
+        return connectLimits.connect(request.getAdaptor(), request.getLocation(), () -> FileSystem.create( // NOSONAR, close is called on termination of server
+                request.getAdaptor(),
+                request.getLocation(),
+                credential,
+                request.getPropertiesMap()
+        ));
+    }
+
     String putFileSystem(FileSystem fileSystem, String username) throws XenonException {
         String fileSystemId = getFileSystemId(fileSystem, username);
         if (fileSystems.containsKey(fileSystemId)) {
@@ -83,6 +355,7 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
             fileSystem.close();
         } else {
             fileSystems.put(fileSystemId, fileSystem);
+            leases.start(fileSystem);
         }
         return fileSystemId;
     }
@@ -104,8 +377,17 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
     public void close(XenonProto.FileSystem request, StreamObserver<XenonProto.Empty> responseObserver) {
         try {
             FileSystem filesystem = getFileSystem(request);
-            filesystem.close();
+            if (!fileSystemPool.isPooled(filesystem)) {
+                filesystem.close();
+            } else if (!fileSystemPool.release(filesystem)) {
+                // still in use by other create calls
+                responseObserver.onNext(empty());
+                responseObserver.onCompleted();
+                return;
+            }
             fileSystems.remove(request.getId());
+            leases.end(filesystem);
+            forget(filesystem);
             responseObserver.onNext(empty());
             responseObserver.onCompleted();
         } catch (Exception e) {
@@ -115,9 +397,74 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
 
     public void closeAllFileSystems() throws XenonException {
         for (Map.Entry<String, FileSystem> entry : fileSystems.entrySet()) {
-            entry.getValue().close();
+            if (!fileSystemPool.isPooled(entry.getValue())) {
+                entry.getValue().close();
+            }
             fileSystems.remove(entry.getKey());
+            leases.end(entry.getValue());
+            forget(entry.getValue());
         }
+        fileSystemPool.closeAll();
+    }
+
+    /**
+     * Unregisters a filesystem which has been closed by its owner, like the filesystem of a closed scheduler,
+     * and drops its lease and the state kept for it.
+     */
+    public void removeFileSystem(FileSystem filesystem) {
+        fileSystems.values().removeIf(value -> value == filesystem);
+        leases.end(filesystem);
+        if (fileSystemPool.isPooled(filesystem)) {
+            fileSystemPool.releaseAll(filesystem);
+        }
+        forget(filesystem);
+    }
+
+    // Drops state kept for a filesystem which is no longer registered
+    private void forget(FileSystem filesystem) {
+        abortMultipartUploads(filesystem);
+        metadataCaches.remove(filesystem);
+        attributeSupports.remove(filesystem);
+        lookupPermits.remove(filesystem);
+        throttles.remove(filesystem);
+        reconnects.remove(filesystem);
+        cancelServerCopies(filesystem);
+    }
+
+    private void cancelServerCopies(FileSystem filesystem) {
+        serverCopies.values().removeIf(copy -> {
+            if (!copy.uses(filesystem)) {
+                return false;
+            }
+            copy.cancel();
+            return true;
+        });
+        xenonCopies.removeIf(copy -> {
+            if (!copy.uses(filesystem)) {
+                return false;
+            }
+            try {
+                copy.cancel();
+            } catch (XenonException e) {
+                LOGGER.debug("Unable to cancel copy {}", copy.getId(), e);
+            }
+            return true;
+        });
+        copyLimits.remove(filesystem);
+    }
+
+    private void abortMultipartUploads(FileSystem filesystem) {
+        multipartUploads.entrySet().removeIf(entry -> {
+            if (entry.getValue().getFileSystem() != filesystem) {
+                return false;
+            }
+            try {
+                entry.getValue().abort();
+            } catch (StatusException e) {
+                LOGGER.warn("Unable to abort multipart upload " + entry.getKey(), e);
+            }
+            return true;
+        });
     }
 
     @Override
@@ -125,7 +472,7 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
         try {
             FileSystem filesystem = getFileSystem(request.getFilesystem());
             Path path = getPath(request.getPath());
-            boolean value = filesystem.exists(path);
+            boolean value = exists(filesystem, path);
             responseObserver.onNext(XenonProto.Is.newBuilder().setValue(value).build());
             responseObserver.onCompleted();
         } catch (Exception e) {
@@ -133,6 +480,57 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
         }
     }
 
+    private boolean exists(FileSystem filesystem, Path path) throws XenonException {
+        MetadataCache cache = metadataCaches.get(filesystem);
+        if (cache == null) {
+            return filesystem.exists(path);
+        }
+        Path key = MetadataCaches.key(filesystem, path);
+        long generation = cache.generation();
+        Boolean value = cache.exists(key);
+        if (value == null) {
+            value = filesystem.exists(path);
+            cache.putExists(key, value, generation);
+        }
+        return value;
+    }
+
+    private PathAttributes getAttributes(FileSystem filesystem, Path path) throws XenonException {
+        MetadataCache cache = metadataCaches.get(filesystem);
+        if (cache == null) {
+            return filesystem.getAttributes(path);
+        }
+        Path key = MetadataCaches.key(filesystem, path);
+        long generation = cache.generation();
+        PathAttributes attributes = cache.getAttributes(key);
+        if (attributes == null) {
+            attributes = filesystem.getAttributes(path);
+            cache.putAttributes(key, attributes, generation);
+        }
+        return attributes;
+    }
+
+    private Iterable<PathAttributes> list(FileSystem filesystem, Path dir, boolean recursive) throws XenonException {
+        MetadataCache cache = metadataCaches.get(filesystem);
+        // recursive listings are not cached, as a change anywhere in the tree would invalidate them
+        if (cache == null || recursive) {
+            return filesystem.list(dir, recursive);
+        }
+        Path key = MetadataCaches.key(filesystem, dir);
+        long generation = cache.generation();
+        List<PathAttributes> listing = cache.list(key);
+        if (listing == null) {
+            listing = new ArrayList<>();
+            filesystem.list(dir, false).forEach(listing::add);
+            cache.putListing(key, listing, generation);
+        }
+        return listing;
+    }
+
+    private AttributeSupport getAttributeSupport(FileSystem filesystem) {
+        return attributeSupports.computeIfAbsent(filesystem, AttributeSupport::of).forRequest();
+    }
+
     private Path getPath(XenonProto.Path request) {
         if (XenonProto.Path.getDefaultInstance().getSeparator().equals(request.getSeparator())) {
             return new Path(request.getPath());
@@ -142,10 +540,12 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
 
     private FileSystem getFileSystem(XenonProto.FileSystem fileSystemRequest) throws StatusException {
         String id = fileSystemRequest.getId();
-        if (!fileSystems.containsKey(id)) {
+        FileSystem filesystem = fileSystems.get(id);
+        if (filesystem == null) {
             throw Status.NOT_FOUND.withDescription("File system with id: " + id).asException();
         }
-        return fileSystems.get(id);
+        renewLease(filesystem);
+        return filesystem;
     }
 
     @Override
@@ -154,6 +554,7 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
             FileSystem filesystem = getFileSystem(request.getFilesystem());
             Path path = getPath(request.getPath());
             filesystem.createDirectory(path);
+            metadataCaches.invalidate(filesystem, path);
             responseObserver.onNext(empty());
             responseObserver.onCompleted();
         } catch (Exception e) {
@@ -167,6 +568,10 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
             FileSystem filesystem = getFileSystem(request.getFilesystem());
             Path path = getPath(request.getPath());
             filesystem.createDirectories(path);
+            // missing parents have been created as well
+            for (Path created = path; created != null; created = created.getParent()) {
+                metadataCaches.invalidate(filesystem, created);
+            }
             responseObserver.onNext(empty());
             responseObserver.onCompleted();
         } catch (Exception e) {
@@ -180,6 +585,7 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
             FileSystem filesystem = getFileSystem(request.getFilesystem());
             Path path = getPath(request.getPath());
             filesystem.createFile(path);
+            metadataCaches.invalidate(filesystem, path);
             responseObserver.onNext(empty());
             responseObserver.onCompleted();
         } catch (Exception e) {
@@ -192,7 +598,12 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
         try {
             FileSystem filesystem = getFileSystem(request.getFilesystem());
             Path path = getPath(request.getPath());
-            filesystem.delete(path, request.getRecursive());
+            try {
+                filesystem.delete(path, request.getRecursive());
+            } finally {
+                // a failed recursive delete can have deleted part of the tree
+                metadataCaches.invalidate(filesystem, path);
+            }
             responseObserver.onNext(empty());
             responseObserver.onCompleted();
         } catch (Exception e) {
@@ -201,56 +612,158 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
     }
 
     @Override
-    public void readFromFile(XenonProto.PathRequest request, StreamObserver<XenonProto.ReadFromFileResponse> responseObserver) {
-        XenonProto.ReadFromFileResponse.Builder builder = XenonProto.ReadFromFileResponse.newBuilder();
-        InputStream pipe = null;
+    public void readFromFile(XenonProto.ReadFromFileRequest request, StreamObserver<XenonProto.ReadFromFileResponse> responseObserver) {
+        try {
+            FileSystem filesystem = getFileSystem(request.getFilesystem());
+            Path path = getPath(request.getPath());
+            if (request.getSha256() && request.getParallelism() > 1) {
+                // SHA-256 can not be computed from checksums of the ranges
+                throw Status.INVALID_ARGUMENT.withDescription("SHA-256 checksum can not be combined with parallelism").asException();
+            }
+            // Read file in chunks and pass on as stream of byte arrays, as fast as the client consumes them
+            ServerCallStreamObserver<XenonProto.ReadFromFileResponse> observer = (ServerCallStreamObserver<XenonProto.ReadFromFileResponse>) responseObserver;
+            ChunkSizer chunkSizer = new ChunkSizer(request.getChunkSize());
+            ResponseCompression compression = new ResponseCompression(request.getCompression(), path);
+            // Local files are read directly with positional reads, instead of through the layers of a Xenon input stream
+            ChunkReader reader = LocalFileChunkReader.open(filesystem, path);
+            // ranges of streams which can not seek would each read the file up to their start, so those are read over one stream
+            if (reader == null && request.getParallelism() > 1 && InputStreamChunkReader.skipsWithoutReading(filesystem)) {
+                Throttle throttle = throttles.open(ClientIdentity.current(), filesystem);
+                new ParallelReadFromFileForwarder(observer, filesystem, path, request.getChunkSize(), compression, throttle, executor).start(request.getOffset(), request.getLength(), request.getParallelism());
+                return;
+            }
+            if (reader == null) {
+                reader = new InputStreamChunkReader(filesystem.readFromFile(path));
+            }
+            // the throttle is opened last, the forwarder closes it when the stream ends
+            Throttle throttle = throttles.open(ClientIdentity.current(), filesystem);
+            new ReadFromFileForwarder(observer, reader, request.getOffset(), request.getLength(), chunkSizer, new Checksummer(request.getSha256()), compression, throttle, scheduler, executor).start();
+        } catch (Exception e) {
+            responseObserver.onError(mapException(e));
+        }
+    }
+
+    @Override
+    public StreamObserver<XenonProto.WriteToFileRequest> writeToFile(StreamObserver<XenonProto.WriteToFileResponse> responseObserver) {
+        return new WriteToFileBroadcaster(fileSystems, metadataCaches, responseObserver, throttles, executor);
+    }
+
+    @Override
+    public StreamObserver<XenonProto.AppendToFileRequest> appendToFile(StreamObserver<XenonProto.AppendToFileResponse> responseObserver) {
+        return new AppendToFileBroadcaster(fileSystems, metadataCaches, responseObserver, throttles, executor);
+    }
+
+    @Override
+    public void createMultipartUpload(XenonProto.CreateMultipartUploadRequest request, StreamObserver<XenonProto.MultipartUpload> responseObserver) {
         try {
             FileSystem filesystem = getFileSystem(request.getFilesystem());
             Path path = getPath(request.getPath());
-            pipe = filesystem.readFromFile(path);
-            // Read file in chunks and pass on as stream of byte arrays
-            ByteString buffer;
-            do {
-                buffer = ByteString.readFrom(pipe, BUFFER_SIZE);
-                responseObserver.onNext(builder.setBuffer(buffer).build());
-            } while (!buffer.isEmpty());
+            String id = UUID.randomUUID().toString();
+            multipartUploads.put(id, new MultipartUpload(filesystem, path, spoolLimit));
+            responseObserver.onNext(XenonProto.MultipartUpload.newBuilder().setId(id).build());
             responseObserver.onCompleted();
         } catch (Exception e) {
             responseObserver.onError(mapException(e));
-        } finally {
+        }
+    }
+
+    @Override
+    public StreamObserver<XenonProto.UploadPartRequest> uploadPart(StreamObserver<XenonProto.Empty> responseObserver) {
+        return new UploadPartBroadcaster(multipartUploads, responseObserver, throttles, executor);
+    }
+
+    @Override
+    public void completeMultipartUpload(XenonProto.MultipartUpload request, StreamObserver<XenonProto.Empty> responseObserver) {
+        try {
+            MultipartUpload upload = getMultipartUpload(request);
             try {
-                if (pipe != null) {
-                    pipe.close();
-                }
-            } catch (Exception e) {
-                responseObserver.onError(mapException(e));
+                upload.complete();
+            } finally {
+                metadataCaches.invalidate(upload.getFileSystem(), upload.getPath());
             }
+            // a failed write keeps the upload, so it can be completed again or aborted
+            multipartUploads.remove(request.getId(), upload);
+            responseObserver.onNext(empty());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(mapException(e));
         }
     }
 
     @Override
-    public StreamObserver<XenonProto.WriteToFileRequest> writeToFile(StreamObserver<XenonProto.Empty> responseObserver) {
-        return new WriteToFileBroadcaster(fileSystems, responseObserver);
+    public void abortMultipartUpload(XenonProto.MultipartUpload request, StreamObserver<XenonProto.Empty> responseObserver) {
+        try {
+            MultipartUpload upload = getMultipartUpload(request);
+            upload.abort();
+            multipartUploads.remove(request.getId(), upload);
+            responseObserver.onNext(empty());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(mapException(e));
+        }
     }
 
-    @Override
-    public StreamObserver<XenonProto.AppendToFileRequest> appendToFile(StreamObserver<XenonProto.Empty> responseObserver) {
-        return new AppendToFileBroadcaster(fileSystems, responseObserver);
+    private MultipartUpload getMultipartUpload(XenonProto.MultipartUpload request) throws StatusException {
+        MultipartUpload upload = multipartUploads.get(request.getId());
+        if (upload == null) {
+            throw Status.NOT_FOUND.withDescription("Multipart upload with id: " + request.getId()).asException();
+        }
+        return upload;
     }
 
     @Override
-    public void getAttributes(XenonProto.PathRequest request, StreamObserver<XenonProto.PathAttributes> responseObserver) {
+    public void getAttributes(XenonProto.GetAttributesRequest request, StreamObserver<XenonProto.PathAttributes> responseObserver) {
         try {
             FileSystem filesystem = getFileSystem(request.getFilesystem());
             Path path = getPath(request.getPath());
-            PathAttributes attributes = filesystem.getAttributes(path);
-            responseObserver.onNext(writeFileAttributes(attributes));
+            AttributeMask mask = AttributeMask.of(request.getMask());
+            PathAttributes attributes = getAttributes(filesystem, path);
+            responseObserver.onNext(writeFileAttributes(attributes, mask, getAttributeSupport(filesystem)));
             responseObserver.onCompleted();
         } catch (Exception e) {
             responseObserver.onError(mapException(e));
         }
     }
 
+    @Override
+    public void existsBatch(XenonProto.BatchPathRequest request, StreamObserver<XenonProto.BatchPathResponse> responseObserver) {
+        try {
+            FileSystem filesystem = getFileSystem(request.getFilesystem());
+            getBatchLookup(filesystem).run(request.getPathsList(), getPaths(request.getPathsList()), responseObserver,
+                (path, result) -> result.setExists(exists(filesystem, path))
+            );
+        } catch (Exception e) {
+            responseObserver.onError(mapException(e));
+        }
+    }
+
+    @Override
+    public void getAttributesBatch(XenonProto.BatchPathRequest request, StreamObserver<XenonProto.BatchPathResponse> responseObserver) {
+        try {
+            FileSystem filesystem = getFileSystem(request.getFilesystem());
+            AttributeMask mask = AttributeMask.of(request.getMask());
+            AttributeSupport support = getAttributeSupport(filesystem);
+            getBatchLookup(filesystem).run(request.getPathsList(), getPaths(request.getPathsList()), responseObserver,
+                (path, result) -> result.setAttributes(writeFileAttributes(getAttributes(filesystem, path), mask, support))
+            );
+        } catch (Exception e) {
+            responseObserver.onError(mapException(e));
+        }
+    }
+
+    private BatchLookup getBatchLookup(FileSystem filesystem) {
+        Semaphore permits = lookupPermits.computeIfAbsent(filesystem, fs -> new Semaphore(BatchLookup.MAX_LOOKUPS_PER_FILESYSTEM));
+        return new BatchLookup(permits, executor);
+    }
+
+    private List<Path> getPaths(List<XenonProto.Path> requestPaths) {
+        List<Path> paths = new ArrayList<>(requestPaths.size());
+        for (XenonProto.Path path : requestPaths) {
+            paths.add(getPath(path));
+        }
+        return paths;
+    }
+
     @Override
     public void getWorkingDirectory(XenonProto.FileSystem request, StreamObserver<XenonProto.Path> responseObserver) {
         try {
@@ -287,6 +800,7 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
             Path path = getPath(request.getPath());
             Set<PosixFilePermission> permissions = parsePermissions(request.getPermissionsList());
             filesystem.setPosixFilePermissions(path, permissions);
+            metadataCaches.invalidate(filesystem, path);
             responseObserver.onNext(empty());
             responseObserver.onCompleted();
         } catch (Exception e) {
@@ -346,6 +860,8 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
             Path target = getPath(request.getTarget());
 
             filesystem.rename(source, target);
+            metadataCaches.invalidate(filesystem, source);
+            metadataCaches.invalidate(filesystem, target);
 
             responseObserver.onNext(empty());
             responseObserver.onCompleted();
@@ -362,6 +878,7 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
             Path target = getPath(request.getTarget());
 
             filesystem.createSymbolicLink(link, target);
+            metadataCaches.invalidate(filesystem, link);
 
             responseObserver.onNext(empty());
             responseObserver.onCompleted();
@@ -377,9 +894,29 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
             Path sourcePath = getPath(request.getSource());
             FileSystem targetFS = getFileSystem(request.getDestinationFilesystem());
             Path targetPath = getPath(request.getDestination());
+            if (request.getMode() == XenonProto.CopyRequest.CopyMode.SYNC) {
+                metadataCaches.invalidate(targetFS, targetPath);
+                SyncPlanner planner = new SyncPlanner(sourceFS, sourcePath, targetFS, targetPath, request.getRecursive(), request.getCompareChecksums(), executor);
+                responseObserver.onNext(startServerCopy(new CopyBatch(sourceFS, targetFS, planner, CopyMode.REPLACE, false, copyLimits, executor)));
+                responseObserver.onCompleted();
+                return;
+            }
             CopyMode mode = mapCopyMode(request.getMode());
+            if (request.getParallelism() > 1) {
+                PathAttributes attributes = sourceFS.getAttributes(sourcePath);
+                if (attributes.isRegular() && ChunkedCopy.canCopy(sourceFS, targetFS, targetPath, attributes.getSize())) {
+                    metadataCaches.invalidate(targetFS, targetPath);
+                    ChunkedCopy copy = new ChunkedCopy(sourceFS, sourcePath, targetFS, targetPath, attributes.getSize(), mode, request.getParallelism(), copyLimits, throttles.open(ClientIdentity.current(), sourceFS, targetFS), executor);
+                    responseObserver.onNext(startServerCopy(copy));
+                    responseObserver.onCompleted();
+                    return;
+                }
+            }
 
             String copyId = sourceFS.copy(sourcePath, targetFS, targetPath, mode, request.getRecursive());
+            xenonCopies.add(new XenonCopy(copyId, sourceFS, targetFS));
+            // the copy runs in the background, entries cached while it runs are refreshed after their time to live
+            metadataCaches.invalidate(targetFS, targetPath);
 
             XenonProto.CopyOperation response = XenonProto.CopyOperation.newBuilder()
                     .setId(copyId)
@@ -391,13 +928,100 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
         }
     }
 
+    @Override
+    public void copyBatch(XenonProto.CopyBatchRequest request, StreamObserver<XenonProto.CopyOperation> responseObserver) {
+        try {
+            FileSystem sourceFS = getFileSystem(request.getFilesystem());
+            FileSystem targetFS = getFileSystem(request.getDestinationFilesystem());
+            CopyMode mode = mapCopyMode(request.getMode());
+            List<CopyBatch.Item> items = new ArrayList<>(request.getItemsCount());
+            for (XenonProto.CopyBatchRequest.Item item : request.getItemsList()) {
+                Path targetPath = getPath(item.getDestination());
+                items.add(new CopyBatch.Item(getPath(item.getSource()), targetPath));
+                metadataCaches.invalidate(targetFS, targetPath);
+            }
+
+            CopyBatch batch = new CopyBatch(sourceFS, targetFS, items, mode, request.getRecursive(), copyLimits, executor);
+
+            responseObserver.onNext(startServerCopy(batch));
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(mapException(e));
+        }
+    }
+
+    private XenonProto.CopyOperation startServerCopy(ServerCopy copy) {
+        serverCopies.put(copy.getId(), copy);
+        copy.start();
+        return XenonProto.CopyOperation.newBuilder().setId(copy.getId()).build();
+    }
+
+    /**
+     * @return copy run by server with id or null when id is of a Xenon copy
+     */
+    private ServerCopy getServerCopy(String id) throws StatusException {
+        if (!ServerCopy.isServerCopyId(id)) {
+            return null;
+        }
+        ServerCopy copy = serverCopies.get(id);
+        if (copy == null) {
+            String kind = CopyBatch.isBatchId(id) ? "Copy batch" : "Chunked copy";
+            throw Status.NOT_FOUND.withDescription(kind + " with id: " + id).asException();
+        }
+        return copy;
+    }
+
+    // Like Xenon forgets a copy once its final status has been returned
+    private XenonProto.CopyStatus forgetWhenDone(XenonProto.CopyStatus status) {
+        if (status.getDone()) {
+            serverCopies.remove(status.getCopyOperation().getId());
+        }
+        return status;
+    }
+
+    private XenonProto.CopyStatus getCopyStatus(FileSystem filesystem, String id) throws XenonException, StatusException {
+        ServerCopy serverCopy = getServerCopy(id);
+        if (serverCopy != null) {
+            return forgetWhenDone(serverCopy.getStatus());
+        }
+        XenonCopy xenonCopy = getXenonCopy(filesystem, id);
+        if (xenonCopy != null) {
+            return mapCopyStatus(forgetWhenDone(xenonCopy, xenonCopy.getStatus()));
+        }
+        return mapCopyStatus(filesystem.getStatus(id));
+    }
+
+    /**
+     * @return tracked copy of the Xenon library or null when the copy is not known
+     */
+    private XenonCopy getXenonCopy(FileSystem filesystem, String id) {
+        return xenonCopies.stream()
+            .filter(copy -> copy.getSource() == filesystem && copy.getId().equals(id))
+            .findFirst()
+            .orElse(null);
+    }
+
+    private CopyStatus forgetWhenDone(XenonCopy copy, CopyStatus status) {
+        if (status.isDone()) {
+            xenonCopies.remove(copy);
+        }
+        return status;
+    }
+
     @Override
     public void cancel(XenonProto.CopyOperationRequest request, StreamObserver<XenonProto.CopyStatus> responseObserver) {
         try {
             FileSystem filesystem = getFileSystem(request.getFilesystem());
 
             XenonProto.CopyOperation copyOperation = request.getCopyOperation();
-            CopyStatus status = filesystem.cancel(copyOperation.getId());
+            ServerCopy serverCopy = getServerCopy(copyOperation.getId());
+            if (serverCopy != null) {
+                responseObserver.onNext(forgetWhenDone(serverCopy.cancel()));
+                responseObserver.onCompleted();
+                return;
+            }
+            XenonCopy xenonCopy = getXenonCopy(filesystem, copyOperation.getId());
+            CopyStatus status = xenonCopy == null ? filesystem.cancel(copyOperation.getId()) : forgetWhenDone(xenonCopy, xenonCopy.cancel());
 
             responseObserver.onNext(mapCopyStatus(status));
             responseObserver.onCompleted();
@@ -412,15 +1036,26 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
             FileSystem filesystem = getFileSystem(request.getFilesystem());
 
             XenonProto.CopyOperation copyOperation = request.getCopyOperation();
-            CopyStatus status = filesystem.getStatus(copyOperation.getId());
+            XenonProto.CopyStatus status = getCopyStatus(filesystem, copyOperation.getId());
 
-            responseObserver.onNext(mapCopyStatus(status));
+            responseObserver.onNext(status);
             responseObserver.onCompleted();
         } catch (Exception e) {
             responseObserver.onError(mapException(e));
         }
     }
 
+    @Override
+    public void watchCopies(XenonProto.WatchCopiesRequest request, StreamObserver<XenonProto.CopyStatus> responseObserver) {
+        try {
+            FileSystem filesystem = getFileSystem(request.getFilesystem());
+            ServerCallStreamObserver<XenonProto.CopyStatus> observer = (ServerCallStreamObserver<XenonProto.CopyStatus>) responseObserver;
+            new CopyWatcher(observer, id -> getCopyStatus(filesystem, id), request.getCopyOperationsList(), request.getInterval(), scheduler, executor).start();
+        } catch (Exception e) {
+            responseObserver.onError(mapException(e));
+        }
+    }
+
     @Override
     public void getAdaptorDescription(XenonProto.AdaptorName request, StreamObserver<XenonProto.FileSystemAdaptorDescription> responseObserver) {
         try {
@@ -520,10 +1155,64 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
         try {
             FileSystem filesystem = getFileSystem(request.getFilesystem());
             Path dir = getPath(request.getDir());
+            AttributeMask mask = AttributeMask.of(request.getMask());
+            AttributeSupport support = getAttributeSupport(filesystem);
+
+            if (request.getRecursive() && request.getParallelism() > 1) {
+                try (ParallelLister lister = new ParallelLister(filesystem, dir, request.getParallelism(), executor)) {
+                    for (PathAttributes item = lister.next(); item != null; item = lister.next()) {
+                        responseObserver.onNext(writeFileAttributes(item, mask, support));
+                    }
+                }
+            } else {
+                Iterable<PathAttributes> items = list(filesystem, dir, request.getRecursive());
+                for (PathAttributes item : items) {
+                    responseObserver.onNext(writeFileAttributes(item, mask, support));
+                }
+            }
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(mapException(e));
+        }
+    }
 
-            Iterable<PathAttributes> items = filesystem.list(dir, request.getRecursive());
+    @Override
+    public void listPaged(XenonProto.ListPagedRequest request, StreamObserver<XenonProto.ListPagedResponse> responseObserver) {
+        try {
+            FileSystem filesystem = getFileSystem(request.getFilesystem());
+            Path dir = getPath(request.getDir());
+            ListFilter filter = new ListFilter(request.getFilter());
+            AttributeMask mask = AttributeMask.of(request.getMask());
+            AttributeSupport support = getAttributeSupport(filesystem);
+            int batchSize = request.getBatchSize() == 0 ? DEFAULT_LIST_BATCH_SIZE : request.getBatchSize();
+            long pageSize = request.getPageSize() == 0 ? Long.MAX_VALUE : request.getPageSize();
+            long skip = parsePageToken(request.getPageToken());
+
+            Iterable<PathAttributes> items = list(filesystem, dir, request.getRecursive());
+            XenonProto.ListPagedResponse.Builder batch = XenonProto.ListPagedResponse.newBuilder();
+            long matched = 0;
             for (PathAttributes item : items) {
-                responseObserver.onNext(writeFileAttributes(item));
+                if (!filter.matches(item)) {
+                    continue;
+                }
+                matched++;
+                if (matched <= skip) {
+                    // returned in a previous page
+                    continue;
+                }
+                if (matched - skip > pageSize) {
+                    // there is more, tell client where to continue
+                    batch.setNextPageToken(Long.toString(matched - 1));
+                    break;
+                }
+                batch.addEntries(writeFileAttributes(item, mask, support));
+                if (batch.getEntriesCount() == batchSize) {
+                    responseObserver.onNext(batch.build());
+                    batch.clear();
+                }
+            }
+            if (batch.getEntriesCount() > 0 || !batch.getNextPageToken().isEmpty()) {
+                responseObserver.onNext(batch.build());
             }
             responseObserver.onCompleted();
         } catch (Exception e) {
@@ -531,13 +1220,36 @@ public class FileSystemService extends FileSystemServiceGrpc.FileSystemServiceIm
         }
     }
 
+    private static long parsePageToken(String token) throws StatusException {
+        if (token.isEmpty()) {
+            return 0;
+        }
+        try {
+            long skip = Long.parseLong(token);
+            if (skip < 0) {
+                throw new NumberFormatException();
+            }
+            return skip;
+        } catch (NumberFormatException e) {
+            throw Status.INVALID_ARGUMENT.withDescription("Invalid page token: " + token).asException();
+        }
+    }
+
     @Override
     public void waitUntilDone(XenonProto.WaitUntilDoneRequest request, StreamObserver<XenonProto.CopyStatus> responseObserver) {
         try {
             FileSystem filesystem = getFileSystem(request.getFilesystem());
 
             XenonProto.CopyOperation copyOperation = request.getCopyOperation();
-            CopyStatus status = filesystem.waitUntilDone(copyOperation.getId(), request.getTimeout());
+            ServerCopy serverCopy = getServerCopy(copyOperation.getId());
+            if (serverCopy != null) {
+                responseObserver.onNext(forgetWhenDone(serverCopy.waitUntilDone(request.getTimeout())));
+                responseObserver.onCompleted();
+                return;
+            }
+            XenonCopy xenonCopy = getXenonCopy(filesystem, copyOperation.getId());
+            CopyStatus status = xenonCopy == null ? filesystem.waitUntilDone(copyOperation.getId(), request.getTimeout())
+                : forgetWhenDone(xenonCopy, xenonCopy.waitUntilDone(request.getTimeout()));
 
             responseObserver.onNext(mapCopyStatus(status));
             responseObserver.onCompleted();
@@ -0,0 +1,72 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.Status;
+import io.grpc.StatusException;
+
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+
+/*
+    Reads chunks from the input stream returned by FileSystem.readFromFile()
+ */
+class InputStreamChunkReader implements ChunkReader {
+    // Adaptors whose input streams skip by moving their read position, streams of other adaptors,
+    // like webdav, s3 and ftp, skip by reading and discarding the skipped bytes
+    private static final Set<String> SEEKING_ADAPTORS = new HashSet<>(Arrays.asList("file", "sftp", "hdfs"));
+
+    private final InputStream in;
+
+    InputStreamChunkReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * @return whether skipping in a stream of the filesystem is cheap, so a file can be read in ranges over several streams
+     */
+    static boolean skipsWithoutReading(FileSystem filesystem) {
+        return SEEKING_ADAPTORS.contains(filesystem.getAdaptorName());
+    }
+
+    @Override
+    public void skip(long n) throws IOException, StatusException {
+        long toSkip = n;
+        while (toSkip > 0) {
+            long skipped = in.skip(toSkip);
+            if (skipped > 0) {
+                toSkip -= skipped;
+            } else if (in.read() == -1) {
+                // skip() may return 0 without being at end of stream, so check with read
+                throw Status.OUT_OF_RANGE.withDescription("Offset " + n + " is beyond end of file").asException();
+            } else {
+                toSkip--;
+            }
+        }
+    }
+
+    @Override
+    public ByteString read(int size) throws IOException {
+        byte[] chunk = new byte[size];
+        int filled = 0;
+        while (filled < chunk.length) {
+            int read = in.read(chunk, filled, chunk.length - filled);
+            if (read == -1) {
+                break;
+            }
+            filled += read;
+        }
+        // chunk is not reused, so it can be handed over without copying
+        return UnsafeByteOperations.unsafeWrap(chunk, 0, filled);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
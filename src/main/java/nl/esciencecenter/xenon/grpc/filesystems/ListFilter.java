@@ -0,0 +1,89 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.regex.Pattern;
+
+import io.grpc.Status;
+import io.grpc.StatusException;
+
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Decides which entries of a listing are sent to the client
+ */
+class ListFilter {
+    private final XenonProto.PathFilter filter;
+    private final PathMatcher glob;
+    private final Pattern regex;
+
+    ListFilter(XenonProto.PathFilter filter) throws StatusException {
+        this.filter = filter;
+        try {
+            glob = filter.getGlob().isEmpty() ? null : FileSystems.getDefault().getPathMatcher("glob:" + filter.getGlob());
+            regex = filter.getRegex().isEmpty() ? null : Pattern.compile(filter.getRegex());
+        } catch (IllegalArgumentException e) {
+            throw Status.INVALID_ARGUMENT.withDescription("Invalid filter: " + e.getMessage()).asException();
+        }
+    }
+
+    boolean matches(PathAttributes entry) {
+        return matchesType(entry)
+            && matchesSize(entry)
+            && matchesModified(entry)
+            && matchesName(entry.getPath());
+    }
+
+    private boolean matchesType(PathAttributes entry) {
+        switch (filter.getType()) {
+            case REGULAR:
+                return entry.isRegular();
+            case DIRECTORY:
+                return entry.isDirectory();
+            case SYMBOLIC_LINK:
+                return entry.isSymbolicLink();
+            case OTHER:
+                return entry.isOther();
+            default:
+                return true;
+        }
+    }
+
+    private boolean matchesSize(PathAttributes entry) {
+        // sizes are unsigned in the request
+        if (filter.getMinSize() != 0 && Long.compareUnsigned(entry.getSize(), filter.getMinSize()) < 0) {
+            return false;
+        }
+        return filter.getMaxSize() == 0 || Long.compareUnsigned(entry.getSize(), filter.getMaxSize()) <= 0;
+    }
+
+    private boolean matchesModified(PathAttributes entry) {
+        if (filter.getModifiedAfter() != 0 && entry.getLastModifiedTime() < filter.getModifiedAfter()) {
+            return false;
+        }
+        return filter.getModifiedBefore() == 0 || entry.getLastModifiedTime() <= filter.getModifiedBefore();
+    }
+
+    private boolean matchesName(Path path) {
+        if (regex != null && !regex.matcher(path.toString()).matches()) {
+            return false;
+        }
+        if (glob != null) {
+            Path filename = path.getFileName();
+            if (filename == null) {
+                return false;
+            }
+            try {
+                return glob.matches(Paths.get(filename.toString()));
+            } catch (InvalidPathException e) {
+                // name is not valid on the local filesystem, so it can not match a local glob
+                return false;
+            }
+        }
+        return true;
+    }
+}
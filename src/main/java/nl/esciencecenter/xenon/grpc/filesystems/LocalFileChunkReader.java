@@ -0,0 +1,98 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.Status;
+import io.grpc.StatusException;
+
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/*
+    Reads chunks of a file on a local filesystem with positional reads of its channel.
+
+    Each chunk is read into a new array which the chunk wraps without copying it again.
+    The JDK stages reads into a heap buffer through a temporary direct buffer of its own, so the bytes are still copied once,
+    but no direct buffer is held per open file, which would only be freed by the garbage collector.
+    The file is not memory mapped, as mappings are only released by the garbage collector
+    and a mapped file which is truncated by another process crashes the server with SIGBUS.
+    A file which shrinks while it is read fails the read with an IOException instead.
+ */
+class LocalFileChunkReader implements ChunkReader {
+    private final FileChannel channel;
+    private final long size;
+    private long position = 0;
+
+    LocalFileChunkReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+    }
+
+    /**
+     * Opens file of a filesystem created with the file adaptor directly.
+     *
+     * @return null when filesystem is not local or file can not be opened directly,
+     * caller should fall back to FileSystem.readFromFile()
+     */
+    static LocalFileChunkReader open(FileSystem filesystem, Path path) {
+        try {
+            java.nio.file.Path localPath = localPath(filesystem, path);
+            if (localPath == null || !Files.isRegularFile(localPath) || !Files.isReadable(localPath)) {
+                return null;
+            }
+            return new LocalFileChunkReader(FileChannel.open(localPath, StandardOpenOption.READ));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return path in local filesystem of path of a filesystem created with the file adaptor, null for other adaptors
+     */
+    static java.nio.file.Path localPath(FileSystem filesystem, Path path) {
+        if (!"file".equals(filesystem.getAdaptorName())) {
+            return null;
+        }
+        Path absolutePath = path.isAbsolute() ? path : filesystem.getWorkingDirectory().resolve(path);
+        String location = filesystem.getLocation() == null ? "" : filesystem.getLocation();
+        return Paths.get(location + absolutePath.toString());
+    }
+
+    @Override
+    public void skip(long n) throws StatusException {
+        if (n > size) {
+            throw Status.OUT_OF_RANGE.withDescription("Offset " + n + " is beyond end of file").asException();
+        }
+        position += n;
+    }
+
+    @Override
+    public ByteString read(int chunkSize) throws IOException {
+        int length = (int) Math.min(chunkSize, size - position);
+        if (length <= 0) {
+            return ByteString.EMPTY;
+        }
+        byte[] chunk = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("File was truncated to " + (position + buffer.position()) + " bytes while reading, expected " + size + " bytes");
+            }
+        }
+        position += length;
+        // the array is not used after it has been wrapped
+        return UnsafeByteOperations.unsafeWrap(chunk);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -10,8 +10,6 @@ import java.util.stream.Collectors;
 
 import io.grpc.Status;
 import io.grpc.StatusException;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.NotConnectedException;
@@ -33,8 +31,6 @@ import nl.esciencecenter.xenon.grpc.XenonProto;
     MapUtils to convert Xenon objects to gRPC response fields
  */
 public class MapUtils {
-    private static final Logger LOGGER = LoggerFactory.getLogger(MapUtils.class);
-
     private MapUtils() {
         throw new IllegalStateException("Utility class");
     }
@@ -88,51 +84,102 @@ public class MapUtils {
                 return CopyMode.REPLACE;
             case IGNORE:
                 return CopyMode.IGNORE;
+            case SYNC:
+                throw Status.INVALID_ARGUMENT.withDescription("Sync copy mode is only supported by copy rpc").asException();
             default:
                 throw Status.INVALID_ARGUMENT.withDescription("Unrecognized copy mode").asException();
         }
     }
 
     static XenonProto.PathAttributes writeFileAttributes(PathAttributes a) {
+        return writeFileAttributes(a, AttributeMask.ALL, new AttributeSupport());
+    }
+
+    /**
+     * Only writes attributes selected by the mask into the message.
+     * The adaptor has already fetched all attributes, so the mask saves building, serializing and sending the other fields.
+     * Attributes not supported by the filesystem are skipped.
+     *
+     * @param mask selects the fields to fill, the path is always filled
+     * @param support skips attributes known to be unsupported and learns from the ones which throw
+     */
+    static XenonProto.PathAttributes writeFileAttributes(PathAttributes a, AttributeMask mask, AttributeSupport support) {
         XenonProto.PathAttributes.Builder builder = XenonProto.PathAttributes.newBuilder()
-                .setPath(writePath(a.getPath()))
-                .setCreationTime(a.getCreationTime())
-                .setIsDirectory(a.isDirectory())
-                .setIsExecutable(a.isExecutable())
-                .setIsHidden(a.isHidden())
-                .setIsOther(a.isOther())
-                .setIsReadable(a.isReadable())
-                .setIsRegular(a.isRegular())
-                .setIsSymbolicLink(a.isSymbolicLink())
-                .setIsWritable(a.isWritable())
-                .setLastAccessTime(a.getLastAccessTime())
-                .setLastModifiedTime(a.getLastModifiedTime())
-                .setSize(a.getSize());
-
-        try {
-            if (a.getPermissions() != null) {
-                builder.addAllPermissions(writePermissions(a.getPermissions()));
+                .setPath(writePath(a.getPath()));
+        if (mask.includes(XenonProto.PathAttributes.CREATION_TIME_FIELD_NUMBER)) {
+            builder.setCreationTime(a.getCreationTime());
+        }
+        if (mask.includes(XenonProto.PathAttributes.IS_DIRECTORY_FIELD_NUMBER)) {
+            builder.setIsDirectory(a.isDirectory());
+        }
+        if (mask.includes(XenonProto.PathAttributes.IS_EXECUTABLE_FIELD_NUMBER)) {
+            builder.setIsExecutable(a.isExecutable());
+        }
+        if (mask.includes(XenonProto.PathAttributes.IS_HIDDEN_FIELD_NUMBER)) {
+            builder.setIsHidden(a.isHidden());
+        }
+        if (mask.includes(XenonProto.PathAttributes.IS_OTHER_FIELD_NUMBER)) {
+            builder.setIsOther(a.isOther());
+        }
+        if (mask.includes(XenonProto.PathAttributes.IS_READABLE_FIELD_NUMBER)) {
+            builder.setIsReadable(a.isReadable());
+        }
+        if (mask.includes(XenonProto.PathAttributes.IS_REGULAR_FIELD_NUMBER)) {
+            builder.setIsRegular(a.isRegular());
+        }
+        if (mask.includes(XenonProto.PathAttributes.IS_SYMBOLIC_LINK_FIELD_NUMBER)) {
+            builder.setIsSymbolicLink(a.isSymbolicLink());
+        }
+        if (mask.includes(XenonProto.PathAttributes.IS_WRITABLE_FIELD_NUMBER)) {
+            builder.setIsWritable(a.isWritable());
+        }
+        if (mask.includes(XenonProto.PathAttributes.LAST_ACCESS_TIME_FIELD_NUMBER)) {
+            builder.setLastAccessTime(a.getLastAccessTime());
+        }
+        if (mask.includes(XenonProto.PathAttributes.LAST_MODIFIED_TIME_FIELD_NUMBER)) {
+            builder.setLastModifiedTime(a.getLastModifiedTime());
+        }
+        if (mask.includes(XenonProto.PathAttributes.SIZE_FIELD_NUMBER)) {
+            builder.setSize(a.getSize());
+        }
+
+        if (isWanted(XenonProto.PathAttributes.PERMISSIONS_FIELD_NUMBER, mask, support)) {
+            try {
+                Set<PosixFilePermission> permissions = a.getPermissions();
+                if (permissions != null) {
+                    builder.addAllPermissions(writePermissions(permissions));
+                }
+            } catch (AttributeNotSupportedException e) {
+                support.notSupported(XenonProto.PathAttributes.PERMISSIONS_FIELD_NUMBER, e);
             }
-        } catch (AttributeNotSupportedException e) {
-            LOGGER.warn("Skipping permissions, not supported", e);
         }
-        try {
-            if (a.getOwner() != null) {
-                builder.setOwner(a.getOwner());
+        if (isWanted(XenonProto.PathAttributes.OWNER_FIELD_NUMBER, mask, support)) {
+            try {
+                String owner = a.getOwner();
+                if (owner != null) {
+                    builder.setOwner(owner);
+                }
+            } catch (AttributeNotSupportedException e) {
+                support.notSupported(XenonProto.PathAttributes.OWNER_FIELD_NUMBER, e);
             }
-        } catch (AttributeNotSupportedException e) {
-            LOGGER.warn("Skipping owner, not supported", e);
         }
-        try {
-            if (a.getGroup() != null) {
-                builder.setGroup(a.getGroup());
+        if (isWanted(XenonProto.PathAttributes.GROUP_FIELD_NUMBER, mask, support)) {
+            try {
+                String group = a.getGroup();
+                if (group != null) {
+                    builder.setGroup(group);
+                }
+            } catch (AttributeNotSupportedException e) {
+                support.notSupported(XenonProto.PathAttributes.GROUP_FIELD_NUMBER, e);
             }
-        } catch (AttributeNotSupportedException e) {
-            LOGGER.warn("Skipping group, not supported", e);
         }
         return builder.build();
     }
 
+    private static boolean isWanted(int fieldNumber, AttributeMask mask, AttributeSupport support) {
+        return mask.includes(fieldNumber) && support.supports(fieldNumber);
+    }
+
     static Set<XenonProto.PosixFilePermission> writePermissions(Set<PosixFilePermission> permissionsx) {
         Set<XenonProto.PosixFilePermission> permissions = new HashSet<>();
         for (PosixFilePermission permission : permissionsx) {
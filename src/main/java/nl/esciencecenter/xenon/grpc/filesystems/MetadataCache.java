@@ -0,0 +1,254 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/*
+    Remembers attributes, existence and directory listings of the paths of a single filesystem.
+
+    Entries expire after a time to live and the least recently used entries are evicted when the cache is full.
+    A listing counts as one entry per listed path, so a few huge directories can not fill the heap.
+    Listing a directory also caches the attributes of its entries.
+    Paths must be absolute, so the same file has the same key whatever the working directory is.
+
+    A lookup which started before an invalidation may return what the path looked like before the change,
+    so each invalidation starts a new generation and results of lookups of an older generation are not cached.
+    Cached paths are indexed by their parent directory, so an invalidation only visits the paths below the changed one.
+ */
+class MetadataCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    // In access order, eldest is least recently used
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Cached paths and their ancestors by parent directory
+    private final Map<Path, Set<Path>> children = new HashMap<>();
+    private long weight = 0;
+    private long generation = 0;
+
+    private static final class Key {
+        private final Path path;
+        private final boolean listing;
+
+        private Key(Path path, boolean listing) {
+            this.path = path;
+            this.listing = listing;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return listing == key.listing && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, listing);
+        }
+    }
+
+    private static final class Entry {
+        // PathAttributes, Boolean for existence or List of PathAttributes for a listing
+        private final Object value;
+        private final int weight;
+        private final long expires;
+
+        private Entry(Object value, int weight, long expires) {
+            this.value = value;
+            this.weight = weight;
+            this.expires = expires;
+        }
+    }
+
+    MetadataCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, System::nanoTime);
+    }
+
+    MetadataCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.clock = clock;
+    }
+
+    /**
+     * @return cached attributes or null when not cached
+     */
+    synchronized PathAttributes getAttributes(Path path) {
+        Object value = get(new Key(path, false));
+        return value instanceof PathAttributes ? (PathAttributes) value : null;
+    }
+
+    /**
+     * @return whether path exists or null when not cached
+     */
+    synchronized Boolean exists(Path path) {
+        Object value = get(new Key(path, false));
+        if (value instanceof PathAttributes) {
+            return true;
+        }
+        return (Boolean) value;
+    }
+
+    /**
+     * @return cached non-recursive listing of directory or null when not cached
+     */
+    @SuppressWarnings("unchecked")
+    synchronized List<PathAttributes> list(Path dir) {
+        return (List<PathAttributes>) get(new Key(dir, true));
+    }
+
+    /**
+     * @return generation to pass to a put of the result of a lookup started now
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * @param generation generation from before the lookup, the attributes are dropped when the cache was invalidated since
+     */
+    synchronized void putAttributes(Path path, PathAttributes attributes, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        put(new Key(path, false), attributes, 1);
+    }
+
+    synchronized void putExists(Path path, boolean exists, long generation) {
+        Key key = new Key(path, false);
+        if (generation != this.generation) {
+            return;
+        }
+        if (exists && get(key) instanceof PathAttributes) {
+            // attributes say more than existence
+            return;
+        }
+        put(key, exists, 1);
+    }
+
+    /**
+     * Caches listing and the attributes of its entries
+     */
+    synchronized void putListing(Path dir, List<PathAttributes> listing, long generation) {
+        if (generation != this.generation || 2L * listing.size() > maxEntries) {
+            return;
+        }
+        for (PathAttributes entry : listing) {
+            if (entry.getPath().isAbsolute()) {
+                put(new Key(entry.getPath(), false), entry, 1);
+            }
+        }
+        // put last, so it is not evicted to make room for its own entries
+        put(new Key(dir, true), listing, Math.max(1, listing.size()));
+    }
+
+    /**
+     * Forgets path, everything below it, and the attributes and listing of its parent, which change with it
+     */
+    synchronized void invalidate(Path path) {
+        generation++;
+        List<Path> below = new ArrayList<>();
+        Deque<Path> todo = new ArrayDeque<>();
+        todo.push(path);
+        while (!todo.isEmpty()) {
+            Path next = todo.pop();
+            below.add(next);
+            todo.addAll(children.getOrDefault(next, Collections.emptySet()));
+        }
+        for (Path removed : below) {
+            remove(new Key(removed, false));
+            remove(new Key(removed, true));
+        }
+        Path parent = path.getParent();
+        if (parent != null) {
+            remove(new Key(parent, false));
+            remove(new Key(parent, true));
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private Object get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (clock.getAsLong() - entry.expires >= 0) {
+            remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private void put(Key key, Object value, int entryWeight) {
+        remove(key);
+        entries.put(key, new Entry(value, entryWeight, clock.getAsLong() + ttlNanos));
+        weight += entryWeight;
+        index(key.path);
+        while (weight > maxEntries && !entries.isEmpty()) {
+            remove(entries.keySet().iterator().next());
+        }
+    }
+
+    private void remove(Key key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            weight -= removed.weight;
+            unindex(key.path);
+        }
+    }
+
+    // Adds path and its ancestors to the index, stops at the first ancestor which is already indexed
+    private void index(Path path) {
+        Path child = path;
+        for (Path parent = path.getParent(); parent != null; child = parent, parent = parent.getParent()) {
+            if (!children.computeIfAbsent(parent, dir -> new HashSet<>()).add(child)) {
+                return;
+            }
+        }
+    }
+
+    // Removes path and its ancestors from the index while they are neither cached nor have cached paths below them
+    private void unindex(Path path) {
+        Path child = path;
+        for (Path parent = path.getParent(); parent != null; child = parent, parent = parent.getParent()) {
+            if (isIndexed(child)) {
+                return;
+            }
+            Set<Path> siblings = children.get(parent);
+            if (siblings == null) {
+                return;
+            }
+            siblings.remove(child);
+            if (!siblings.isEmpty()) {
+                return;
+            }
+            children.remove(parent);
+        }
+    }
+
+    private boolean isIndexed(Path path) {
+        return children.containsKey(path) || entries.containsKey(new Key(path, false)) || entries.containsKey(new Key(path, true));
+    }
+}
@@ -0,0 +1,70 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/*
+    Metadata caches of the open filesystems.
+
+    Disabled when the maximum number of entries or the time to live is zero, then nothing is cached.
+    Only changes made through this server invalidate entries, changes made by others are seen after the time to live.
+ */
+class MetadataCaches {
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<FileSystem, MetadataCache> caches = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxEntries maximum number of entries per filesystem
+     * @param ttlMillis time to live of an entry in milliseconds
+     */
+    MetadataCaches(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    boolean isEnabled() {
+        return maxEntries > 0 && ttlMillis > 0;
+    }
+
+    /**
+     * @return cache of filesystem or null when caching is disabled
+     */
+    MetadataCache get(FileSystem filesystem) {
+        if (!isEnabled()) {
+            return null;
+        }
+        return caches.computeIfAbsent(filesystem, fs -> new MetadataCache(maxEntries, ttlMillis));
+    }
+
+    /**
+     * @return path as key of a cache, relative paths are resolved against the working directory of the filesystem
+     */
+    static Path key(FileSystem filesystem, Path path) {
+        if (path.isAbsolute()) {
+            return path.normalize();
+        }
+        Path workingDirectory = filesystem.getWorkingDirectory();
+        if (workingDirectory == null) {
+            return path.normalize();
+        }
+        return workingDirectory.resolve(path).normalize();
+    }
+
+    /**
+     * Call after path has been changed on filesystem
+     */
+    void invalidate(FileSystem filesystem, Path path) {
+        MetadataCache cache = caches.get(filesystem);
+        if (cache != null) {
+            cache.invalidate(key(filesystem, path));
+        }
+    }
+
+    void remove(FileSystem filesystem) {
+        caches.remove(filesystem);
+    }
+}
@@ -0,0 +1,260 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import io.grpc.Status;
+import io.grpc.StatusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/*
+    Upload of a file in parts.
+
+    Xenon has no api to write a file in parts, so parts are stored in a local temporary directory
+    while they arrive, possibly over several streams at the same time.
+    When the upload is completed, the parts are written in order of their number to the file using a single Xenon output stream.
+    The parts are kept when the write fails, so completing can be retried, and the disk space they take is limited by a SpoolLimit.
+ */
+class MultipartUpload {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultipartUpload.class);
+
+    private final FileSystem filesystem;
+    private final Path path;
+    private final java.nio.file.Path directory;
+    private final SpoolLimit spoolLimit;
+    // Bytes of parts reserved in the spool limit
+    private long spooled = 0;
+    // Parts which are being written by a stream
+    private final Set<Integer> partsInProgress = new HashSet<>();
+    private boolean finished = false;
+    private boolean completing = false;
+    // Time in milliseconds a part was last opened or closed
+    private long lastUsed = System.currentTimeMillis();
+
+    MultipartUpload(FileSystem filesystem, Path path, SpoolLimit spoolLimit) throws IOException {
+        this.filesystem = filesystem;
+        this.path = path;
+        this.spoolLimit = spoolLimit;
+        this.directory = Files.createTempDirectory("xenon-grpc-upload");
+    }
+
+    FileSystem getFileSystem() {
+        return filesystem;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return true while a part is being uploaded or the upload is being completed
+     */
+    synchronized boolean isActive() {
+        return completing || !partsInProgress.isEmpty();
+    }
+
+    /**
+     * @return milliseconds since the upload was last active, 0 while it is active
+     */
+    synchronized long getIdleMillis() {
+        return isActive() ? 0 : System.currentTimeMillis() - lastUsed;
+    }
+
+    /**
+     * Local copy of a part being written.
+     * Closing it keeps the part, discarding it removes the part, for a stream which failed or was cancelled halfway.
+     */
+    class Part extends FilterOutputStream {
+        private final int partNumber;
+        private final java.nio.file.Path file;
+        // Bytes reserved in the spool limit for this part
+        private long reserved = 0;
+        private boolean closed = false;
+
+        private Part(int partNumber, java.nio.file.Path file) throws IOException {
+            super(Files.newOutputStream(file));
+            this.partNumber = partNumber;
+            this.file = file;
+        }
+
+        /**
+         * Reserves space for a chunk of the part, before it is written.
+         */
+        void reserve(long bytes) throws StatusException {
+            MultipartUpload.this.reserve(bytes);
+            reserved += bytes;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                closePart(partNumber);
+            }
+        }
+
+        /**
+         * Closes and removes the truncated part, so completing the upload does not write it
+         */
+        void discard() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } catch (IOException e) {
+                LOGGER.debug("Unable to close discarded part {} in {}", partNumber, directory, e);
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to remove discarded part {} in {}", partNumber, directory, e);
+            }
+            release(reserved);
+            closePart(partNumber);
+        }
+    }
+
+    /**
+     * Opens a part for writing, replacing any earlier content of the part.
+     *
+     * @return stream which writes to local copy of part, close it when the part has been sent
+     */
+    synchronized Part openPart(int partNumber) throws IOException, StatusException {
+        if (partNumber < 1) {
+            throw Status.INVALID_ARGUMENT.withDescription("Part number must be 1 or more, got " + partNumber).asException();
+        }
+        if (finished) {
+            throw Status.FAILED_PRECONDITION.withDescription("Multipart upload is already completed or aborted").asException();
+        }
+        if (!partsInProgress.add(partNumber)) {
+            throw Status.FAILED_PRECONDITION.withDescription("Part " + partNumber + " is already being uploaded").asException();
+        }
+        lastUsed = System.currentTimeMillis();
+        try {
+            java.nio.file.Path partFile = partFile(partNumber);
+            if (Files.exists(partFile)) {
+                release(Files.size(partFile));
+            }
+            return new Part(partNumber, partFile);
+        } catch (IOException e) {
+            closePart(partNumber);
+            throw e;
+        }
+    }
+
+    /**
+     * Reserves space for a chunk of a part, before it is written to the stream of the part.
+     */
+    private void reserve(long bytes) throws StatusException {
+        spoolLimit.reserve(bytes);
+        synchronized (this) {
+            spooled += bytes;
+        }
+    }
+
+    private synchronized void release(long bytes) {
+        spoolLimit.release(bytes);
+        spooled -= bytes;
+    }
+
+    private synchronized void closePart(int partNumber) {
+        partsInProgress.remove(partNumber);
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes the parts in order of their number to the file and removes the local copies of the parts.
+     * When writing fails the parts are kept, so the upload can be completed again or aborted.
+     */
+    void complete() throws IOException, XenonException, StatusException {
+        Map<Integer, java.nio.file.Path> parts = finish();
+        synchronized (this) {
+            completing = true;
+        }
+        boolean written = false;
+        try {
+            long size = 0;
+            for (java.nio.file.Path part : parts.values()) {
+                size += Files.size(part);
+            }
+            try (OutputStream out = filesystem.writeToFile(path, size)) {
+                for (java.nio.file.Path part : parts.values()) {
+                    Files.copy(part, out);
+                }
+            }
+            written = true;
+        } finally {
+            synchronized (this) {
+                completing = false;
+                finished = written;
+                lastUsed = System.currentTimeMillis();
+            }
+        }
+        delete();
+    }
+
+    /**
+     * Removes the local copies of the parts.
+     */
+    void abort() throws StatusException {
+        finish();
+        delete();
+    }
+
+    private synchronized Map<Integer, java.nio.file.Path> finish() throws StatusException {
+        if (finished) {
+            throw Status.FAILED_PRECONDITION.withDescription("Multipart upload is already completed or aborted").asException();
+        }
+        if (!partsInProgress.isEmpty()) {
+            throw Status.FAILED_PRECONDITION.withDescription("Parts " + partsInProgress + " are still being uploaded").asException();
+        }
+        finished = true;
+        Map<Integer, java.nio.file.Path> parts = new TreeMap<>();
+        try (Stream<java.nio.file.Path> files = Files.list(directory)) {
+            files.forEach(file -> parts.put(Integer.valueOf(file.getFileName().toString()), file));
+        } catch (IOException e) {
+            throw Status.INTERNAL.withDescription("Unable to list parts").withCause(e).asException();
+        }
+        return parts;
+    }
+
+    private java.nio.file.Path partFile(int partNumber) {
+        return directory.resolve(Integer.toString(partNumber));
+    }
+
+    private void delete() {
+        synchronized (this) {
+            release(spooled);
+        }
+        try (Stream<java.nio.file.Path> files = Files.list(directory)) {
+            files.forEach(file -> file.toFile().delete());
+            Files.delete(directory);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to remove parts of multipart upload in " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import com.google.protobuf.ByteOutput;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+/*
+    Writes the content of byte strings to an output stream without copying them.
+
+    ByteString.writeTo(OutputStream) copies the bytes into a fresh array,
+    because the output stream could hold on to the array and change it.
+    Xenon output streams only write the bytes, so the array backing the byte string can be handed over as is.
+ */
+class OutputStreamByteOutput extends ByteOutput {
+    private static final int SCRATCH_SIZE = 8192;
+
+    private final OutputStream out;
+    private byte[] scratch;
+
+    OutputStreamByteOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    boolean writesTo(OutputStream out) {
+        return this.out == out;
+    }
+
+    void write(ByteString buffer) throws IOException {
+        UnsafeByteOperations.unsafeWriteTo(buffer, this);
+    }
+
+    @Override
+    public void write(byte value) throws IOException {
+        out.write(value);
+    }
+
+    @Override
+    public void write(byte[] value, int offset, int length) throws IOException {
+        out.write(value, offset, length);
+    }
+
+    @Override
+    public void writeLazy(byte[] value, int offset, int length) throws IOException {
+        out.write(value, offset, length);
+    }
+
+    @Override
+    public void write(ByteBuffer value) throws IOException {
+        if (value.hasArray()) {
+            out.write(value.array(), value.arrayOffset() + value.position(), value.remaining());
+            return;
+        }
+        // direct buffers have no array, pass them on in pieces through a reused array
+        if (scratch == null) {
+            scratch = new byte[SCRATCH_SIZE];
+        }
+        ByteBuffer source = value.duplicate();
+        while (source.hasRemaining()) {
+            int length = Math.min(scratch.length, source.remaining());
+            source.get(scratch, 0, length);
+            out.write(scratch, 0, length);
+        }
+    }
+
+    @Override
+    public void writeLazy(ByteBuffer value) throws IOException {
+        write(value);
+    }
+}
@@ -0,0 +1,147 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/*
+    Lists a directory tree recursively by listing several directories at the same time.
+
+    Workers take directories from a shared deque, list them non-recursively and push the subdirectories they find back on the deque.
+    Pushing to the front makes the walk depth first, which keeps the deque small.
+    Entries are handed to the consumer through a bounded queue, so workers wait when the consumer falls behind.
+    The workers share the filesystem, so adaptors which pool connections or channels list over several of them.
+    Symbolic links to directories are returned, but not followed, to prevent cycles.
+ */
+class ParallelLister implements AutoCloseable {
+    static final int MAX_PARALLELISM = 16;
+    // Maximum number of entries found, but not yet taken by the consumer
+    static final int QUEUE_CAPACITY = 1024;
+    private static final long POLL_MILLIS = 100;
+    private static final Object END = new Object();
+
+    private final FileSystem filesystem;
+    private final BlockingDeque<Path> directories = new LinkedBlockingDeque<>();
+    // Directories in deque or being listed
+    private final AtomicInteger pending = new AtomicInteger();
+    private final BlockingQueue<Object> results = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    // Set on failure or close
+    private volatile boolean stopped = false;
+    private volatile boolean closed = false;
+    private boolean ended = false;
+
+    ParallelLister(FileSystem filesystem, Path dir, int parallelism, Executor executor) {
+        this.filesystem = filesystem;
+        pending.set(1);
+        directories.add(dir);
+        int workers = Math.max(1, Math.min(parallelism, MAX_PARALLELISM));
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::work);
+        }
+    }
+
+    /**
+     * Waits for the next entry of the tree.
+     *
+     * @return entry or null when all directories have been listed
+     * @throws XenonException when listing a directory failed, the walk is stopped
+     * @throws RuntimeException when the adaptor failed unexpectedly while listing a directory, the walk is stopped
+     */
+    PathAttributes next() throws XenonException, InterruptedException {
+        if (ended) {
+            return null;
+        }
+        Object result = results.take();
+        if (result == END) {
+            ended = true;
+            return null;
+        }
+        if (result instanceof Exception) {
+            ended = true;
+            close();
+            if (result instanceof RuntimeException) {
+                throw (RuntimeException) result;
+            }
+            throw (XenonException) result;
+        }
+        return (PathAttributes) result;
+    }
+
+    /**
+     * Stops the workers, also when the tree has not been completely listed
+     */
+    @Override
+    public void close() {
+        closed = true;
+        stopped = true;
+        directories.clear();
+        // unblock workers waiting for space
+        results.clear();
+    }
+
+    private void work() {
+        try {
+            while (!stopped) {
+                Path dir = directories.pollFirst(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (dir == null) {
+                    if (pending.get() == 0) {
+                        return;
+                    }
+                    continue;
+                }
+                try {
+                    listDirectory(dir);
+                } catch (XenonException | RuntimeException e) {
+                    // the consumer must hear about any failure, otherwise it waits for an end which never comes
+                    stopped = true;
+                    offer(e);
+                    return;
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        offer(END);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void listDirectory(Path dir) throws XenonException, InterruptedException {
+        for (PathAttributes entry : filesystem.list(dir, false)) {
+            if (entry.isDirectory() && !entry.isSymbolicLink()) {
+                pending.incrementAndGet();
+                directories.addFirst(entry.getPath());
+            }
+            if (!put(entry)) {
+                return;
+            }
+        }
+    }
+
+    private boolean put(Object result) throws InterruptedException {
+        while (!stopped) {
+            if (results.offer(result, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Used for failure and end, which must reach the consumer even when the walk has been stopped by a failure
+    private void offer(Object result) throws InterruptedException {
+        // a closed lister has no consumer, give up instead of waiting forever
+        while (!closed && !results.offer(result, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            // retry
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static nl.esciencecenter.xenon.grpc.MapUtils.mapException;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Forwards a range of a Xenon file to a readFromFile response stream by splitting it into several ranges
+    which are each read over their own Xenon input stream at the same time.
+
+    Chunks of different ranges are interleaved in the response stream and tagged with their offset in the file.
+    Each range only reads its next chunk when the transport is ready, so per stream at most one chunk
+    per range is held besides what gRPC itself buffers.
+ */
+class ParallelReadFromFileForwarder {
+    static final int MAX_PARALLELISM = 16;
+    // Ranges smaller than this are not worth the cost of opening another stream
+    static final long MIN_RANGE_SIZE = 1024 * 1024;
+
+    private final ServerCallStreamObserver<XenonProto.ReadFromFileResponse> observer;
+    private final FileSystem filesystem;
+    private final Path path;
+    private final Executor executor;
+    private final int chunkSize;
+    private final ResponseCompression compression;
+    private final Throttle throttle;
+    private final Object readyLock = new Object();
+    // Number of times the stream became ready or was stopped, guarded by readyLock
+    private long readySignals = 0;
+    private AtomicInteger rangesToDo;
+    // Ranges still reading, also those which failed or stopped, the last one closes the throttle
+    private AtomicInteger rangesRunning;
+    // CRC32C checksum and length of each range
+    private long[] rangeCrcs;
+    private long[] rangeLengths;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param chunkSize chunk size asked for by client, 0 for adaptive chunk size
+     * @param compression chooses compression of stream
+     * @param throttle limits rate of all ranges together
+     */
+    ParallelReadFromFileForwarder(ServerCallStreamObserver<XenonProto.ReadFromFileResponse> observer, FileSystem filesystem, Path path, int chunkSize, ResponseCompression compression, Throttle throttle, Executor executor) {
+        this.observer = observer;
+        this.filesystem = filesystem;
+        this.path = path;
+        this.chunkSize = chunkSize;
+        this.compression = compression;
+        this.throttle = throttle;
+        this.executor = executor;
+    }
+
+    /**
+     * @param offset number of bytes to skip at start of file
+     * @param length number of bytes to forward, 0 forwards until end of file
+     * @param parallelism maximum number of ranges to read at the same time
+     */
+    void start(long offset, long length, int parallelism) {
+        long end;
+        try {
+            long size = filesystem.getAttributes(path).getSize();
+            if (offset > size) {
+                throw Status.OUT_OF_RANGE.withDescription("Offset " + offset + " is beyond end of file").asException();
+            }
+            end = length == 0 ? size : Math.min(size, offset + length);
+        } catch (Exception e) {
+            throttle.close();
+            observer.onError(mapException(e));
+            return;
+        }
+        observer.setOnCancelHandler(this::stop);
+        observer.setOnReadyHandler(this::ready);
+
+        long total = end - offset;
+        long maxRanges = Math.min(Math.min(parallelism, MAX_PARALLELISM), (total + MIN_RANGE_SIZE - 1) / MIN_RANGE_SIZE);
+        long rangeSize = Math.max(1, (total + maxRanges - 1) / Math.max(1, maxRanges));
+        int ranges = (int) Math.max(1, (total + rangeSize - 1) / rangeSize);
+        rangesToDo = new AtomicInteger(ranges);
+        rangesRunning = new AtomicInteger(ranges);
+        rangeCrcs = new long[ranges];
+        rangeLengths = new long[ranges];
+        for (int i = 0; i < ranges; i++) {
+            int range = i;
+            long rangeStart = offset + i * rangeSize;
+            long rangeLength = Math.min(rangeSize, end - rangeStart);
+            rangeLengths[i] = rangeLength;
+            executor.execute(() -> forwardRange(range, rangeStart, rangeLength));
+        }
+    }
+
+    private void forwardRange(int range, long start, long length) {
+        try {
+            readRange(range, start, length);
+        } finally {
+            if (rangesRunning.decrementAndGet() == 0) {
+                throttle.close();
+            }
+        }
+    }
+
+    private void readRange(int range, long start, long length) {
+        XenonProto.ReadFromFileResponse.Builder builder = XenonProto.ReadFromFileResponse.newBuilder();
+        ChunkSizer chunkSizer = new ChunkSizer(chunkSize);
+        Checksummer checksummer = new Checksummer(false);
+        try (ChunkReader reader = new InputStreamChunkReader(filesystem.readFromFile(path))) {
+            reader.skip(start);
+            long position = start;
+            long remaining = length;
+            while (remaining > 0 && waitUntilReady()) {
+                ByteString buffer = reader.read((int) Math.min(chunkSizer.size(), remaining));
+                if (buffer.isEmpty()) {
+                    throw new IOException("Unexpected end of file at offset " + position);
+                }
+                checksummer.update(buffer);
+                throttle.acquire(buffer.size());
+                send(builder.setOffset(position).setBuffer(buffer).build());
+                chunkSizer.sent(buffer.size());
+                position += buffer.size();
+                remaining -= buffer.size();
+            }
+        } catch (Exception e) {
+            fail(e);
+            return;
+        }
+        rangeCrcs[range] = checksummer.getCrc32c();
+        // the decrement publishes the checksum of this range to the range which completes the stream
+        if (rangesToDo.decrementAndGet() == 0) {
+            complete();
+        }
+    }
+
+    // isReady() takes the lock of the call, so it is called outside readyLock, which is only used to wait for a signal
+    private boolean waitUntilReady() throws InterruptedException {
+        while (true) {
+            long seen;
+            synchronized (readyLock) {
+                seen = readySignals;
+            }
+            if (stopped) {
+                return false;
+            }
+            if (observer.isReady()) {
+                return true;
+            }
+            synchronized (readyLock) {
+                // a signal after reading the count is not missed
+                while (readySignals == seen && !stopped) {
+                    readyLock.wait();
+                }
+            }
+        }
+    }
+
+    private void ready() {
+        synchronized (readyLock) {
+            readySignals++;
+            readyLock.notifyAll();
+        }
+    }
+
+    private void stop() {
+        stopped = true;
+        ready();
+    }
+
+    private void send(XenonProto.ReadFromFileResponse response) {
+        synchronized (observer) {
+            if (!stopped) {
+                // the first chunk sent, of whichever range, is the sample
+                compression.choose(observer, response.getBuffer());
+                observer.onNext(response);
+            }
+        }
+    }
+
+    private void complete() {
+        synchronized (observer) {
+            if (!stopped) {
+                // an empty chunk marks the end of the file
+                observer.onNext(XenonProto.ReadFromFileResponse.newBuilder()
+                    .setChecksums(checksums())
+                    .setThrottledMillis(throttle.getThrottledMillis())
+                    .build());
+                observer.onCompleted();
+            }
+        }
+    }
+
+    private XenonProto.Checksums checksums() {
+        long crc = rangeCrcs[0];
+        for (int i = 1; i < rangeCrcs.length; i++) {
+            crc = Checksummer.combineCrc32c(crc, rangeCrcs[i], rangeLengths[i]);
+        }
+        return XenonProto.Checksums.newBuilder().setCrc32C((int) crc).build();
+    }
+
+    private void fail(Exception e) {
+        synchronized (observer) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            observer.onError(mapException(e));
+        }
+        // wake up the other ranges so they stop
+        ready();
+    }
+}
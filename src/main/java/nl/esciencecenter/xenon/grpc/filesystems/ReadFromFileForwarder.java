@@ -0,0 +1,160 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static nl.esciencecenter.xenon.grpc.MapUtils.mapException;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.protobuf.ByteString;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Forwards the content of a Xenon file to a readFromFile response stream.
+
+    A chunk is only read from the file when the transport is ready to send it,
+    so per stream at most one chunk is held besides what gRPC itself buffers.
+    A throttled chunk is sent later from the executor, so the gRPC thread never sleeps.
+    Only one thread at a time sends, and it holds no lock while calling the observer,
+    as the transport can call onReady while holding its own lock.
+ */
+class ReadFromFileForwarder implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadFromFileForwarder.class);
+
+    private final ServerCallStreamObserver<XenonProto.ReadFromFileResponse> observer;
+    private final ChunkReader reader;
+    private final long offset;
+    private final ChunkSizer chunkSizer;
+    private final Checksummer checksummer;
+    private final ResponseCompression compression;
+    private final Throttle throttle;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final XenonProto.ReadFromFileResponse.Builder builder = XenonProto.ReadFromFileResponse.newBuilder();
+    // Number of times sending was requested while a thread was sending, only that thread touches the fields below
+    private final AtomicInteger requests = new AtomicInteger();
+    private long remaining;
+    private boolean done = false;
+    // Chunk read but not yet sent
+    private ByteString pending = null;
+    // Whether pending chunk waits for the throttle
+    private volatile boolean waiting = false;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param offset number of bytes to skip at start of file
+     * @param length maximum number of bytes to forward, 0 forwards until end of file
+     * @param chunkSizer decides size of chunks
+     * @param checksummer computes checksums of forwarded bytes
+     * @param compression chooses compression of stream
+     * @param throttle limits rate of stream
+     * @param scheduler triggers sending of a throttled chunk, which is then sent on the executor
+     */
+    ReadFromFileForwarder(ServerCallStreamObserver<XenonProto.ReadFromFileResponse> observer, ChunkReader reader, long offset, long length, ChunkSizer chunkSizer, Checksummer checksummer, ResponseCompression compression, Throttle throttle, ScheduledExecutorService scheduler, Executor executor) {
+        this.observer = observer;
+        this.reader = reader;
+        this.offset = offset;
+        this.remaining = length == 0 ? Long.MAX_VALUE : length;
+        this.chunkSizer = chunkSizer;
+        this.checksummer = checksummer;
+        this.compression = compression;
+        this.throttle = throttle;
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    void start() {
+        try {
+            reader.skip(offset);
+        } catch (Exception e) {
+            done = true;
+            close();
+            observer.onError(mapException(e));
+            return;
+        }
+        observer.setOnCancelHandler(this::cancel);
+        observer.setOnReadyHandler(this);
+        // the first onReady can fire before the handler is set, so start sending ourselves
+        run();
+    }
+
+    @Override
+    public void run() {
+        if (requests.getAndIncrement() != 0) {
+            // the thread which is sending will send again
+            return;
+        }
+        int missed = 1;
+        do {
+            send();
+            missed = requests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void send() {
+        if (cancelled && !done) {
+            done = true;
+            close();
+        }
+        try {
+            while (!done && !waiting && observer.isReady()) {
+                if (pending == null) {
+                    // a throttled chunk is reserved at once, so it is kept small enough to get a fair share
+                    pending = reader.read((int) Math.min(Math.min(chunkSizer.size(), throttle.getMaxChunkSize()), remaining));
+                    remaining -= pending.size();
+                    checksummer.update(pending);
+                    long wait = throttle.reserve(pending.size());
+                    if (wait > 0) {
+                        waiting = true;
+                        scheduler.schedule(() -> executor.execute(this::resume), wait, TimeUnit.NANOSECONDS);
+                        return;
+                    }
+                }
+                ByteString buffer = pending;
+                pending = null;
+                if (buffer.isEmpty()) {
+                    // an empty chunk marks the end of the file
+                    builder.setChecksums(checksummer.getChecksums()).setThrottledMillis(throttle.getThrottledMillis());
+                }
+                compression.choose(observer, buffer);
+                observer.onNext(builder.setBuffer(buffer).build());
+                chunkSizer.sent(buffer.size());
+                if (buffer.isEmpty()) {
+                    done = true;
+                    close();
+                    observer.onCompleted();
+                }
+            }
+        } catch (Exception e) {
+            done = true;
+            close();
+            observer.onError(mapException(e));
+        }
+    }
+
+    private void resume() {
+        waiting = false;
+        run();
+    }
+
+    private void cancel() {
+        // the file is closed by the sending thread, so it is not closed during a read
+        cancelled = true;
+        run();
+    }
+
+    private void close() {
+        throttle.close();
+        try {
+            reader.close();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to close file", e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import com.google.protobuf.ByteString;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Chooses whether the messages of a readFromFile response stream are compressed with gzip.
+
+    The choice is made just before the first chunk is sent, because gRPC can only change compression before the headers of the response are sent.
+    With automatic compression, the file extension decides for well known compressed and text formats.
+    Otherwise the first chunk is compressed as a sample, and the stream is only compressed when the sample shrinks enough.
+ */
+class ResponseCompression {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCompression.class);
+    private static final String GZIP = "gzip";
+    // Compress a sample of at most this many bytes
+    static final int SAMPLE_SIZE = 64 * 1024;
+    // Compress when sample shrinks to less than this fraction of its size
+    static final double MAX_COMPRESSED_RATIO = 0.9;
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+        "gz", "tgz", "bz2", "xz", "zst", "lz4", "zip", "7z", "rar", "jar",
+        "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "mkv", "ogg", "webm",
+        "parquet", "nc4"
+    ));
+    private static final Set<String> TEXT_EXTENSIONS = new HashSet<>(Arrays.asList(
+        "txt", "log", "out", "err", "csv", "tsv", "json", "xml", "html", "yaml", "yml", "md", "sh", "py", "java", "c", "h"
+    ));
+
+    private final XenonProto.Compression compression;
+    private final Path path;
+    private boolean chosen = false;
+
+    ResponseCompression(XenonProto.Compression compression, Path path) {
+        this.compression = compression;
+        this.path = path;
+    }
+
+    /**
+     * Sets compression of stream, only has effect on its first call.
+     *
+     * @param sample first chunk of stream, before it is sent
+     */
+    void choose(ServerCallStreamObserver<?> observer, ByteString sample) {
+        if (chosen) {
+            return;
+        }
+        chosen = true;
+        boolean compress = compression == XenonProto.Compression.GZIP
+            || (compression == XenonProto.Compression.AUTO && isCompressible(path, sample));
+        if (compress) {
+            // gRPC falls back to no compression when the client does not accept gzip
+            observer.setCompression(GZIP);
+        }
+        LOGGER.debug("Compression of {} is {}, compressing with gzip: {}", path, compression, compress);
+    }
+
+    static boolean isCompressible(Path path, ByteString sample) {
+        String extension = extension(path);
+        if (COMPRESSED_EXTENSIONS.contains(extension)) {
+            return false;
+        }
+        if (TEXT_EXTENSIONS.contains(extension)) {
+            return true;
+        }
+        return isCompressible(sample);
+    }
+
+    static boolean isCompressible(ByteString sample) {
+        int size = Math.min(sample.size(), SAMPLE_SIZE);
+        if (size == 0) {
+            return false;
+        }
+        byte[] input = sample.substring(0, size).toByteArray();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] output = new byte[size];
+            int compressed = 0;
+            while (!deflater.finished() && compressed < size) {
+                compressed += deflater.deflate(output, compressed, size - compressed);
+            }
+            return deflater.finished() && compressed < size * MAX_COMPRESSED_RATIO;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String extension(Path path) {
+        Path filename = path.getFileName();
+        if (filename == null) {
+            return "";
+        }
+        String name = filename.toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+}
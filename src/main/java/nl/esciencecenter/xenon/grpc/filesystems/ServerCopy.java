@@ -0,0 +1,41 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.List;
+
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Copy operation which is run by the server itself instead of by the Xenon library.
+
+    Its id has a prefix which Xenon copy ids do not have, so copy rpcs can tell them apart.
+ */
+interface ServerCopy {
+    static boolean isServerCopyId(String id) {
+        return CopyBatch.isBatchId(id) || ChunkedCopy.isChunkedId(id);
+    }
+
+    String getId();
+
+    /**
+     * @return source and target filesystems, copy is cancelled when one of them is closed
+     */
+    List<FileSystem> getFileSystems();
+
+    default boolean uses(FileSystem filesystem) {
+        return getFileSystems().stream().anyMatch(used -> used == filesystem);
+    }
+
+    void start();
+
+    boolean isDone();
+
+    XenonProto.CopyStatus getStatus();
+
+    XenonProto.CopyStatus cancel();
+
+    /**
+     * @param timeout milliseconds to wait, 0 waits until done
+     */
+    XenonProto.CopyStatus waitUntilDone(long timeout) throws InterruptedException;
+}
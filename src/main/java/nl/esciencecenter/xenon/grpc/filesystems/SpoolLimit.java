@@ -0,0 +1,35 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import io.grpc.Status;
+import io.grpc.StatusException;
+
+/*
+    Limits the local disk space taken by the parts of all multipart uploads together.
+
+    Space is reserved before a chunk of a part is stored and released when the part is replaced or the upload is removed.
+ */
+class SpoolLimit {
+    static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024 * 1024;
+
+    private final long maxSize;
+    private long used = 0;
+
+    SpoolLimit(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    synchronized void reserve(long bytes) throws StatusException {
+        if (used + bytes > maxSize) {
+            throw Status.RESOURCE_EXHAUSTED.withDescription("Multipart uploads can hold at most " + maxSize + " bytes of parts, complete or abort other uploads first").asException();
+        }
+        used += bytes;
+    }
+
+    synchronized void release(long bytes) {
+        used -= bytes;
+    }
+
+    synchronized long getUsed() {
+        return used;
+    }
+}
@@ -0,0 +1,181 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/*
+    Plans the copies of a sync, which only copies the regular files that differ between source and target.
+
+    A file differs when it is missing in the target, its size differs or it was modified after the target file.
+    Xenon does not preserve modification times, so a copied file is newer than its source and is not copied again by the next sync.
+    When checksums are compared, files of the same size are compared by CRC32C of their content instead of modification time.
+    Directories missing in the target are created while planning, symbolic links and other special files are skipped.
+ */
+class SyncPlanner implements CopyBatch.Planner {
+    // Number of directories listed at the same time on each filesystem
+    static final int LIST_PARALLELISM = 4;
+    // Number of pairs of files compared by checksum at the same time
+    static final int CHECKSUM_PARALLELISM = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncPlanner.class);
+
+    private final FileSystem source;
+    private final Path sourcePath;
+    private final FileSystem target;
+    private final Path targetPath;
+    private final boolean recursive;
+    private final boolean compareChecksums;
+    private final Executor executor;
+
+    SyncPlanner(FileSystem source, Path sourcePath, FileSystem target, Path targetPath, boolean recursive, boolean compareChecksums, Executor executor) {
+        this.source = source;
+        this.sourcePath = absolute(source, sourcePath);
+        this.target = target;
+        this.targetPath = absolute(target, targetPath);
+        this.recursive = recursive;
+        this.compareChecksums = compareChecksums;
+        this.executor = executor;
+    }
+
+    // listings return absolute paths, so the roots they are made relative to must be absolute and normalized as well
+    private static Path absolute(FileSystem filesystem, Path path) {
+        Path absolute = path.isAbsolute() ? path : filesystem.getWorkingDirectory().resolve(path);
+        return absolute.normalize();
+    }
+
+    @Override
+    public List<CopyBatch.Item> plan() throws XenonException, InterruptedException {
+        List<CopyBatch.Item> items = new ArrayList<>();
+        List<CopyBatch.Item> sameSize = new ArrayList<>();
+        PathAttributes sourceAttributes = source.getAttributes(sourcePath);
+        if (!sourceAttributes.isDirectory()) {
+            PathAttributes targetAttributes = target.exists(targetPath) ? target.getAttributes(targetPath) : null;
+            compare(sourceAttributes, targetAttributes, new CopyBatch.Item(sourcePath, targetPath), items, sameSize);
+        } else {
+            Map<Path, PathAttributes> targetEntries = listTarget();
+            for (PathAttributes entry : listSource()) {
+                Path relative = sourcePath.relativize(entry.getPath());
+                Path destination = targetPath.resolve(relative);
+                PathAttributes targetEntry = targetEntries.get(relative);
+                if (entry.isDirectory() && !entry.isSymbolicLink()) {
+                    if (targetEntry == null) {
+                        // parents are listed before their children, so created before the files in them are copied
+                        target.createDirectories(destination);
+                    }
+                } else if (entry.isRegular()) {
+                    compare(entry, targetEntry, new CopyBatch.Item(entry.getPath(), destination), items, sameSize);
+                } else {
+                    LOGGER.debug("Skipping sync of {}, not a regular file or directory", entry.getPath());
+                }
+            }
+        }
+        items.addAll(compareChecksums(sameSize));
+        return items;
+    }
+
+    private void compare(PathAttributes sourceFile, PathAttributes targetFile, CopyBatch.Item item, List<CopyBatch.Item> changed, List<CopyBatch.Item> sameSize) {
+        if (targetFile == null || !targetFile.isRegular() || sourceFile.getSize() != targetFile.getSize()) {
+            changed.add(item);
+        } else if (compareChecksums) {
+            sameSize.add(item);
+        } else if (sourceFile.getLastModifiedTime() > targetFile.getLastModifiedTime()) {
+            changed.add(item);
+        }
+    }
+
+    private Iterable<PathAttributes> listSource() throws XenonException, InterruptedException {
+        if (!recursive) {
+            return source.list(sourcePath, false);
+        }
+        List<PathAttributes> entries = new ArrayList<>();
+        try (ParallelLister lister = new ParallelLister(source, sourcePath, LIST_PARALLELISM, executor)) {
+            for (PathAttributes entry = lister.next(); entry != null; entry = lister.next()) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return entries of target directory by path relative to it, target directory is created when missing
+     */
+    private Map<Path, PathAttributes> listTarget() throws XenonException, InterruptedException {
+        Map<Path, PathAttributes> entries = new HashMap<>();
+        if (!target.exists(targetPath)) {
+            target.createDirectories(targetPath);
+            return entries;
+        }
+        if (!recursive) {
+            for (PathAttributes entry : target.list(targetPath, false)) {
+                entries.put(targetPath.relativize(entry.getPath()), entry);
+            }
+            return entries;
+        }
+        try (ParallelLister lister = new ParallelLister(target, targetPath, LIST_PARALLELISM, executor)) {
+            for (PathAttributes entry = lister.next(); entry != null; entry = lister.next()) {
+                entries.put(targetPath.relativize(entry.getPath()), entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return items whose source and target content differ
+     */
+    private List<CopyBatch.Item> compareChecksums(List<CopyBatch.Item> sameSize) throws InterruptedException {
+        List<CopyBatch.Item> changed = new ArrayList<>();
+        Semaphore permits = new Semaphore(CHECKSUM_PARALLELISM);
+        CountDownLatch done = new CountDownLatch(sameSize.size());
+        for (CopyBatch.Item item : sameSize) {
+            permits.acquire();
+            executor.execute(() -> {
+                try {
+                    if (crc32c(source, item.getSource()) != crc32c(target, item.getDestination())) {
+                        synchronized (changed) {
+                            changed.add(item);
+                        }
+                    }
+                } catch (XenonException | IOException e) {
+                    // copy when unsure
+                    LOGGER.debug("Unable to compare checksums of {}, copying it", item.getSource(), e);
+                    synchronized (changed) {
+                        changed.add(item);
+                    }
+                } finally {
+                    permits.release();
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return changed;
+    }
+
+    private static long crc32c(FileSystem filesystem, Path path) throws XenonException, IOException {
+        CRC32C crc = new CRC32C();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = filesystem.readFromFile(path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,96 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Limits the rate of a single transfer by the buckets of the stream, its filesystems and its client.
+
+    A chunk waits for the bucket which is most in debt, and counts the time it waited as throttled time of the transfer.
+    Buckets serve reservations in order of arrival, so a chunk is reserved in slices of at most MAX_RESERVATION bytes,
+    else a transfer with large chunks would get a larger share of a shared bucket than one with small chunks.
+ */
+class Throttle {
+    // Maximum bytes taken from the buckets at once
+    static final int MAX_RESERVATION = 64 * 1024;
+
+    private final List<TokenBucket> buckets;
+    private final Runnable onUse;
+    private final Runnable onClose;
+    private final AtomicLong throttledNanos = new AtomicLong();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * @param onUse called for each chunk
+     */
+    Throttle(List<TokenBucket> buckets, Runnable onUse) {
+        this(buckets, onUse, () -> { });
+    }
+
+    /**
+     * @param onClose called once when the transfer has ended
+     */
+    Throttle(List<TokenBucket> buckets, Runnable onUse, Runnable onClose) {
+        this.buckets = buckets;
+        this.onUse = onUse;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Waits until bytes may be transferred, reserving them slice by slice
+     */
+    void acquire(long bytes) throws InterruptedException {
+        long remaining = bytes;
+        do {
+            long slice = buckets.isEmpty() ? remaining : Math.min(remaining, MAX_RESERVATION);
+            long wait = reserve(slice);
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            remaining -= slice;
+        } while (remaining > 0);
+    }
+
+    /**
+     * @return maximum bytes of a chunk for a caller of reserve, so it gets its share of the buckets
+     */
+    int getMaxChunkSize() {
+        return buckets.isEmpty() ? Integer.MAX_VALUE : MAX_RESERVATION;
+    }
+
+    /**
+     * Reserves bytes for a caller which waits without blocking a thread
+     *
+     * @return nanoseconds to wait before the bytes may be transferred
+     */
+    long reserve(long bytes) {
+        onUse.run();
+        if (buckets.isEmpty() || bytes == 0) {
+            return 0;
+        }
+        long wait = 0;
+        for (TokenBucket bucket : buckets) {
+            wait = Math.max(wait, bucket.reserve(bytes));
+        }
+        throttledNanos.addAndGet(wait);
+        return wait;
+    }
+
+    /**
+     * Releases the buckets shared with other transfers, call when the transfer has ended
+     */
+    void close() {
+        if (closed.compareAndSet(false, true)) {
+            onClose.run();
+        }
+    }
+
+    /**
+     * @return total time transfer waited for buckets
+     */
+    long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+}
@@ -0,0 +1,91 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+
+/*
+    Rate limits of the server, for each stream, each filesystem and each client.
+
+    A limit of 0 is unlimited. The buckets of filesystems and clients are shared by all their transfers.
+    Each chunk of a transfer counts as use of its filesystems, also when unlimited.
+    The bucket of a client is dropped when its last transfer is closed, so clients which come and go do not pile up.
+ */
+class Throttles {
+    private final long streamRate;
+    private final long fileSystemRate;
+    private final long clientRate;
+    private final Consumer<FileSystem> onUse;
+    private final Map<FileSystem, TokenBucket> fileSystemBuckets = new ConcurrentHashMap<>();
+    private final Map<String, ClientBucket> clientBuckets = new ConcurrentHashMap<>();
+
+    private static final class ClientBucket {
+        private final TokenBucket bucket;
+        // Open transfers of the client, guarded by the map
+        private int transfers = 0;
+
+        private ClientBucket(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    /**
+     * @param streamRate maximum bytes per second of a single stream, 0 for unlimited
+     * @param fileSystemRate maximum bytes per second of all streams of a filesystem, 0 for unlimited
+     * @param clientRate maximum bytes per second of all streams of a client, 0 for unlimited
+     * @param onUse called for each filesystem of a transfer when it transfers a chunk
+     */
+    Throttles(long streamRate, long fileSystemRate, long clientRate, Consumer<FileSystem> onUse) {
+        this.streamRate = streamRate;
+        this.fileSystemRate = fileSystemRate;
+        this.clientRate = clientRate;
+        this.onUse = onUse;
+    }
+
+    /**
+     * @param client identity of client making the transfer
+     * @param filesystems filesystems read or written by the transfer
+     * @return throttle of a new transfer, close it when the transfer has ended
+     */
+    Throttle open(String client, FileSystem... filesystems) {
+        List<TokenBucket> buckets = new ArrayList<>();
+        if (streamRate > 0) {
+            buckets.add(new TokenBucket(streamRate));
+        }
+        if (fileSystemRate > 0) {
+            for (FileSystem filesystem : filesystems) {
+                TokenBucket bucket = fileSystemBuckets.computeIfAbsent(filesystem, fs -> new TokenBucket(fileSystemRate));
+                if (!buckets.contains(bucket)) {
+                    buckets.add(bucket);
+                }
+            }
+        }
+        Runnable onClose = () -> { };
+        if (clientRate > 0) {
+            ClientBucket shared = clientBuckets.compute(client, (c, existing) -> {
+                ClientBucket opened = existing == null ? new ClientBucket(new TokenBucket(clientRate)) : existing;
+                opened.transfers++;
+                return opened;
+            });
+            buckets.add(shared.bucket);
+            onClose = () -> clientBuckets.computeIfPresent(client, (c, existing) -> --existing.transfers == 0 ? null : existing);
+        }
+        return new Throttle(buckets, () -> {
+            for (FileSystem filesystem : filesystems) {
+                onUse.accept(filesystem);
+            }
+        }, onClose);
+    }
+
+    int getClientCount() {
+        return clientBuckets.size();
+    }
+
+    void remove(FileSystem filesystem) {
+        fileSystemBuckets.remove(filesystem);
+    }
+}
@@ -0,0 +1,59 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import java.util.function.LongSupplier;
+
+/*
+    Limits the rate of bytes transferred by the streams which share it.
+
+    The bucket holds at most a second worth of bytes, so an idle stream can burst for a second.
+    A stream reserves the bytes of its chunk before transferring it and the bucket may go into debt,
+    the stream then waits until the debt is paid off.
+    Later reservations wait for earlier debt, so streams are served in order of arrival and
+    active streams get an equal share of the rate, while the share of idle streams goes to the active ones.
+ */
+class TokenBucket {
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final long rate;
+    private final LongSupplier clock;
+    // Guarded by this
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param rate bytes per second
+     */
+    TokenBucket(long rate) {
+        this(rate, System::nanoTime);
+    }
+
+    /**
+     * @param clock nano time
+     */
+    TokenBucket(long rate, LongSupplier clock) {
+        this.rate = rate;
+        this.clock = clock;
+        this.tokens = rate;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    long getRate() {
+        return rate;
+    }
+
+    /**
+     * Takes bytes from the bucket
+     *
+     * @return nanoseconds to wait before transferring the bytes
+     */
+    synchronized long reserve(long bytes) {
+        long now = clock.getAsLong();
+        tokens = Math.min(rate, tokens + (now - lastRefill) * rate / NANOS_PER_SECOND);
+        lastRefill = now;
+        tokens -= bytes;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-tokens * NANOS_PER_SECOND / rate);
+    }
+}
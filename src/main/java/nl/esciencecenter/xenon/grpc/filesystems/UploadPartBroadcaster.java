@@ -0,0 +1,62 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static nl.esciencecenter.xenon.grpc.MapUtils.empty;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+public class UploadPartBroadcaster extends Broadcaster<XenonProto.Empty> implements StreamObserver<XenonProto.UploadPartRequest> {
+    private final Map<String, MultipartUpload> uploads;
+    private MultipartUpload upload;
+    private MultipartUpload.Part part;
+    private int partNumber = 0;
+
+    UploadPartBroadcaster(Map<String, MultipartUpload> uploads, StreamObserver<XenonProto.Empty> responseObserver, Throttles throttles, Executor executor) {
+        super(responseObserver, throttles, executor);
+        this.uploads = uploads;
+    }
+
+    @Override
+    public void onNext(XenonProto.UploadPartRequest value) {
+        submitChunk(() -> {
+            // open part to write to on first incoming chunk of part
+            if (pipe == null || value.getPartNumber() != partNumber) {
+                String id = value.getUpload().getId();
+                MultipartUpload upload = uploads.get(id);
+                if (upload == null) {
+                    throw Status.NOT_FOUND.withDescription("Multipart upload with id: " + id).asException();
+                }
+                if (pipe != null) {
+                    pipe.close();
+                    pipe = null;
+                }
+                partNumber = value.getPartNumber();
+                throttle(upload.getFileSystem());
+                this.upload = upload;
+                part = upload.openPart(partNumber);
+                pipe = part;
+            }
+            part.reserve(value.getBuffer().size());
+            write(value.getBuffer());
+        });
+    }
+
+    @Override
+    void abortPipe() {
+        // a truncated part must not be written when the upload is completed
+        if (part != null) {
+            part.discard();
+        }
+        super.abortPipe();
+    }
+
+    @Override
+    XenonProto.Empty response() {
+        return empty();
+    }
+}
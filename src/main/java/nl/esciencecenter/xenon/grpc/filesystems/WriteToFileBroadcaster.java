@@ -1,8 +1,7 @@
 package nl.esciencecenter.xenon.grpc.filesystems;
 
-import static nl.esciencecenter.xenon.grpc.MapUtils.mapException;
-
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
@@ -11,31 +10,43 @@ import nl.esciencecenter.xenon.filesystems.FileSystem;
 import nl.esciencecenter.xenon.filesystems.Path;
 import nl.esciencecenter.xenon.grpc.XenonProto;
 
-public class WriteToFileBroadcaster extends Broadcaster implements StreamObserver<XenonProto.WriteToFileRequest> {
-    WriteToFileBroadcaster(Map<String, FileSystem> fileSystems, StreamObserver<XenonProto.Empty> responseObserver) {
-        super(fileSystems, responseObserver);
+public class WriteToFileBroadcaster extends Broadcaster<XenonProto.WriteToFileResponse> implements StreamObserver<XenonProto.WriteToFileRequest> {
+    private final Map<String, FileSystem> fileSystems;
+    private final MetadataCaches metadataCaches;
+
+    WriteToFileBroadcaster(Map<String, FileSystem> fileSystems, MetadataCaches metadataCaches, StreamObserver<XenonProto.WriteToFileResponse> responseObserver, Throttles throttles, Executor executor) {
+        super(responseObserver, throttles, executor);
+        this.fileSystems = fileSystems;
+        this.metadataCaches = metadataCaches;
     }
 
     @Override
     public void onNext(XenonProto.WriteToFileRequest value) {
-        try {
+        submitChunk(() -> {
             // open pip to write to on first incoming chunk
             if (pipe == null) {
+                checksummer = new Checksummer(value.getSha256());
                 String id = value.getFilesystem().getId();
                 if (!fileSystems.containsKey(id)) {
                     throw Status.NOT_FOUND.withDescription("File system with id: " + id).asException();
                 }
                 FileSystem filesystem = fileSystems.get(id);
                 Path path = new Path(value.getPath().getPath());
+                invalidateOnClose(metadataCaches, filesystem, path);
+                throttle(filesystem);
                 if (XenonProto.WriteToFileRequest.getDefaultInstance().getSize() == value.getSize()) {
                     pipe = filesystem.writeToFile(path);
                 } else {
                     pipe = filesystem.writeToFile(path, value.getSize());
                 }
             }
-            pipe.write(value.getBuffer().toByteArray());
-        } catch (Exception e) {
-            responseObserver.onError(mapException(e));
-        }
+            write(value.getBuffer());
+        });
+    }
+
+    @Override
+    XenonProto.WriteToFileResponse response() {
+        Checksummer checksums = checksummer == null ? new Checksummer(false) : checksummer;
+        return XenonProto.WriteToFileResponse.newBuilder().setChecksums(checksums.getChecksums()).setThrottledMillis(getThrottledMillis()).build();
     }
 }
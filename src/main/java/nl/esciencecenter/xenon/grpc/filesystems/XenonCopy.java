@@ -0,0 +1,101 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.CopyStatus;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+
+/*
+    Copy run by the Xenon library, tracked so the leases of its filesystems are kept while it runs.
+
+    Xenon forgets a copy once its final status has been returned,
+    so a final status seen while checking leases is kept until the client asks for it.
+ */
+class XenonCopy {
+    private final String id;
+    private final FileSystem source;
+    private final FileSystem target;
+    private CopyStatus finalStatus;
+
+    XenonCopy(String id, FileSystem source, FileSystem target) {
+        this.id = id;
+        this.source = source;
+        this.target = target;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    FileSystem getSource() {
+        return source;
+    }
+
+    boolean uses(FileSystem filesystem) {
+        return source == filesystem || target == filesystem;
+    }
+
+    /**
+     * @return true when the copy has stopped, also when Xenon no longer knows it
+     */
+    boolean isDone() {
+        try {
+            return getStatus().isDone();
+        } catch (XenonException e) {
+            return true;
+        }
+    }
+
+    CopyStatus getStatus() throws XenonException {
+        CopyStatus status = getFinalStatus();
+        if (status != null) {
+            return status;
+        }
+        try {
+            return remember(source.getStatus(id));
+        } catch (XenonException e) {
+            return finalStatusOr(e);
+        }
+    }
+
+    CopyStatus cancel() throws XenonException {
+        try {
+            return remember(source.cancel(id));
+        } catch (XenonException e) {
+            return finalStatusOr(e);
+        }
+    }
+
+    /**
+     * @param timeout milliseconds to wait, 0 waits until done
+     */
+    CopyStatus waitUntilDone(long timeout) throws XenonException {
+        CopyStatus status = getFinalStatus();
+        if (status != null) {
+            return status;
+        }
+        try {
+            return remember(source.waitUntilDone(id, timeout));
+        } catch (XenonException e) {
+            return finalStatusOr(e);
+        }
+    }
+
+    private synchronized CopyStatus getFinalStatus() {
+        return finalStatus;
+    }
+
+    private synchronized CopyStatus remember(CopyStatus status) {
+        if (status != null && status.isDone() && finalStatus == null) {
+            finalStatus = status;
+        }
+        return status;
+    }
+
+    // the final status may have been taken from Xenon by another caller in the meantime
+    private synchronized CopyStatus finalStatusOr(XenonException e) throws XenonException {
+        if (finalStatus != null) {
+            return finalStatus;
+        }
+        throw e;
+    }
+}
@@ -13,9 +13,17 @@ import static nl.esciencecenter.xenon.grpc.schedulers.MapUtils.mapSchedulerAdapt
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import io.grpc.Status;
@@ -27,8 +35,12 @@ import org.slf4j.LoggerFactory;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.credentials.Credential;
 import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.grpc.Backoff;
+import nl.esciencecenter.xenon.grpc.ConnectLimits;
+import nl.esciencecenter.xenon.grpc.Leases;
 import nl.esciencecenter.xenon.grpc.SchedulerServiceGrpc;
 import nl.esciencecenter.xenon.grpc.XenonProto;
+import nl.esciencecenter.xenon.grpc.filesystems.FileSystemService;
 import nl.esciencecenter.xenon.schedulers.JobDescription;
 import nl.esciencecenter.xenon.schedulers.JobStatus;
 import nl.esciencecenter.xenon.schedulers.QueueStatus;
@@ -38,30 +50,242 @@ import nl.esciencecenter.xenon.schedulers.Streams;
 
 public class SchedulerService extends SchedulerServiceGrpc.SchedulerServiceImplBase {
     private static final Logger LOGGER = LoggerFactory.getLogger(SchedulerService.class);
+    // Maximum milliseconds between checks for expired leases
+    private static final long LEASE_CHECK_INTERVAL = 1000;
+    // Maximum milliseconds between attempts to reconnect a broken scheduler
+    private static final long MAX_RECONNECT_DELAY = 5 * 60 * 1000L;
 
     private final Map<String, Scheduler> schedulers = new ConcurrentHashMap<>();
+    // Requests of schedulers made by create calls, to reconnect them
+    private final Map<Scheduler, XenonProto.CreateSchedulerRequest> createRequests = new ConcurrentHashMap<>();
     private final Map<String, FileSystem> fileSystems;
+    // Runs lease and health checks
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SchedulerService background");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Leases<Scheduler> leases = new Leases<>(0);
+    private volatile ConnectLimits connectLimits = new ConnectLimits(0);
+    private volatile Backoff<Scheduler> reconnects = new Backoff<>(LEASE_CHECK_INTERVAL, MAX_RECONNECT_DELAY);
+    // Unregisters the filesystem of a closed scheduler
+    private volatile Consumer<FileSystem> removeFileSystem;
+    // Whether a copy or upload of the filesystem service runs on the filesystem of a scheduler
+    private volatile Predicate<FileSystem> fileSystemBusy = fileSystem -> false;
+    // Schedulers of filesystems handed out by getFileSystem, use of such a filesystem renews the lease of its scheduler
+    private final Map<FileSystem, Scheduler> schedulerOfFileSystem = Collections.synchronizedMap(new IdentityHashMap<>());
+    // Number of calls which wait on a scheduler, a scheduler is not closed while one of them runs
+    private final Map<Scheduler, Integer> runningCalls = new ConcurrentHashMap<>();
 
     public SchedulerService(Map<String, FileSystem> fileSystems) {
         super();
         this.fileSystems = fileSystems;
+        this.removeFileSystem = fileSystem -> fileSystems.values().removeIf(value -> value == fileSystem);
     }
 
     SchedulerService() {
-        super();
-        this.fileSystems = new ConcurrentHashMap<>();
+        this(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @param fileSystemService service which shares the filesystems of schedulers, it releases them when their scheduler is closed
+     */
+    public void setFileSystemService(FileSystemService fileSystemService) {
+        this.removeFileSystem = fileSystemService::removeFileSystem;
+        this.fileSystemBusy = fileSystemService::isBusy;
+        fileSystemService.setOnUse(this::renewLeaseOfFileSystem);
+    }
+
+    private void renewLeaseOfFileSystem(FileSystem fileSystem) {
+        Scheduler scheduler = schedulerOfFileSystem.get(fileSystem);
+        if (scheduler != null) {
+            leases.renew(scheduler);
+        }
+    }
+
+    private void startCall(Scheduler scheduler) {
+        runningCalls.merge(scheduler, 1, Integer::sum);
+    }
+
+    private void endCall(Scheduler scheduler) {
+        runningCalls.computeIfPresent(scheduler, (key, count) -> count == 1 ? null : count - 1);
+        leases.renew(scheduler);
+    }
+
+    private boolean isBusy(Scheduler scheduler) {
+        if (runningCalls.containsKey(scheduler)) {
+            return true;
+        }
+        synchronized (schedulerOfFileSystem) {
+            return schedulerOfFileSystem.entrySet().stream()
+                .anyMatch(entry -> entry.getValue() == scheduler && fileSystemBusy.test(entry.getKey()));
+        }
+    }
+
+    /**
+     * Closes schedulers which have not been used for a while, in case their client forgot to close them or crashed.
+     *
+     * @param idleTimeout milliseconds after which an unused scheduler is closed, 0 never closes them
+     */
+    public void setLeaseTimeout(long idleTimeout) {
+        leases = new Leases<>(idleTimeout);
+        if (idleTimeout > 0) {
+            long interval = Math.min(idleTimeout, LEASE_CHECK_INTERVAL);
+            background.scheduleWithFixedDelay(this::closeExpiredSchedulers, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Checks in the background whether schedulers are still connected, with a cheap call over their connection, and reconnects the schedulers of create calls whose connection broke,
+     * so calls of clients do not fail on a dead connection. Failed reconnects are retried with exponential backoff.
+     *
+     * @param interval milliseconds between checks, 0 disables them
+     */
+    public void setHealthCheckInterval(long interval) {
+        if (interval > 0) {
+            reconnects = new Backoff<>(interval, Math.max(interval, MAX_RECONNECT_DELAY));
+            background.scheduleWithFixedDelay(this::checkSchedulers, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void checkSchedulers() {
+        Set<Scheduler> registered = Collections.newSetFromMap(new IdentityHashMap<>());
+        registered.addAll(schedulers.values());
+        for (Scheduler scheduler : registered) {
+            XenonProto.CreateSchedulerRequest request = createRequests.get(scheduler);
+            // only schedulers of create calls can be reconnected
+            if (request != null && reconnects.isDue(scheduler) && !isHealthy(scheduler)) {
+                reconnect(scheduler, request);
+            }
+        }
+    }
+
+    private void reconnect(Scheduler broken, XenonProto.CreateSchedulerRequest request) {
+        Scheduler reconnected;
+        try {
+            reconnected = connect(request);
+        } catch (XenonException e) {
+            long delay = reconnects.failed(broken);
+            LOGGER.warn("Unable to reconnect scheduler {} at {}, retrying in {} ms", request.getAdaptor(), request.getLocation(), delay, e);
+            return;
+        }
+        try {
+            restoreWorkingDirectory(broken, reconnected);
+        } catch (XenonException e) {
+            closeQuietly(reconnected);
+            long delay = reconnects.failed(broken);
+            LOGGER.warn("Unable to restore working directory of scheduler {} at {}, retrying in {} ms", request.getAdaptor(), request.getLocation(), delay, e);
+            return;
+        }
+        reconnects.succeeded(broken);
+        createRequests.put(reconnected, request);
+        schedulers.replaceAll((id, value) -> value == broken ? reconnected : value);
+        createRequests.remove(broken);
+        if (!schedulers.containsValue(reconnected)) {
+            // closed in the meantime
+            createRequests.remove(reconnected);
+            closeQuietly(reconnected);
+            return;
+        }
+        leases.end(broken);
+        leases.start(reconnected);
+        try {
+            // filesystem of scheduler shares its connection, so it is swapped as well
+            FileSystem brokenFileSystem = broken.getFileSystem();
+            FileSystem reconnectedFileSystem = reconnected.getFileSystem();
+            fileSystems.replaceAll((id, value) -> value == brokenFileSystem ? reconnectedFileSystem : value);
+            if (schedulerOfFileSystem.remove(brokenFileSystem) != null) {
+                schedulerOfFileSystem.put(reconnectedFileSystem, reconnected);
+            }
+            removeFileSystem.accept(brokenFileSystem);
+        } catch (XenonException e) {
+            LOGGER.debug("Scheduler {} at {} has no filesystem", request.getAdaptor(), request.getLocation(), e);
+        }
+        closeQuietly(broken);
+        LOGGER.info("Reconnected scheduler {} at {}", request.getAdaptor(), request.getLocation());
+    }
+
+    // relative paths of the client on the filesystem of the scheduler must keep resolving against the same directory
+    private static void restoreWorkingDirectory(Scheduler broken, Scheduler reconnected) throws XenonException {
+        FileSystem brokenFileSystem;
+        try {
+            brokenFileSystem = broken.getFileSystem();
+        } catch (XenonException e) {
+            // scheduler without filesystem
+            return;
+        }
+        reconnected.getFileSystem().setWorkingDirectory(brokenFileSystem.getWorkingDirectory());
+    }
+
+    // isOpen() is only a local flag for most adaptors, which stays set when the connection drops,
+    // so a cheap call over the connection is made as well
+    private static boolean isHealthy(Scheduler scheduler) {
+        try {
+            if (!scheduler.isOpen()) {
+                return false;
+            }
+            scheduler.getQueueNames();
+            return true;
+        } catch (XenonException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Scheduler scheduler) {
+        try {
+            scheduler.close();
+        } catch (XenonException e) {
+            LOGGER.warn("Unable to close scheduler {}", scheduler.getLocation(), e);
+        }
+    }
+
+    /**
+     * @param connectLimits limits on connections made to the same host at the same time, shared with the filesystem service
+     */
+    public void setConnectLimits(ConnectLimits connectLimits) {
+        this.connectLimits = connectLimits;
+    }
+
+    void closeExpiredSchedulers() {
+        for (Scheduler scheduler : leases.expired()) {
+            if (isBusy(scheduler)) {
+                leases.renew(scheduler);
+                continue;
+            }
+            leases.end(scheduler);
+            createRequests.remove(scheduler);
+            reconnects.remove(scheduler);
+            List<String> ids = schedulers.entrySet().stream()
+                .filter(entry -> entry.getValue() == scheduler)
+                .map(Map.Entry::getKey)
+                .filter(id -> schedulers.remove(id, scheduler))
+                .collect(Collectors.toList());
+            if (ids.isEmpty()) {
+                // closed in the meantime
+                continue;
+            }
+            LOGGER.info("Closing scheduler {}, it has not been used for {} ms", ids.get(0), leases.getIdleTimeout());
+            removeFileSystem(scheduler);
+            closeQuietly(scheduler);
+        }
+    }
+
+    // filesystem of scheduler is closed with it
+    private void removeFileSystem(Scheduler scheduler) {
+        schedulerOfFileSystem.values().removeIf(value -> value == scheduler);
+        try {
+            removeFileSystem.accept(scheduler.getFileSystem());
+        } catch (XenonException e) {
+            LOGGER.debug("Scheduler {} has no filesystem", scheduler.getLocation(), e);
+        }
     }
 
     @Override
     public void create(XenonProto.CreateSchedulerRequest request, StreamObserver<XenonProto.Scheduler> responseObserver) {
         try {
             Credential credential = mapCredential(request);
-            Scheduler scheduler = Scheduler.create( // NOSONAR, close is called on termination of server
-                    request.getAdaptor(),
-                    request.getLocation(),
-                    credential,
-                    request.getPropertiesMap()
-            );
+            Scheduler scheduler = connect(request);
+            createRequests.put(scheduler, request);
             String id = putScheduler(scheduler, usernameOfCredential(credential));
 
             XenonProto.Scheduler value = XenonProto.Scheduler.newBuilder()
@@ -74,12 +298,23 @@ public class SchedulerService extends SchedulerServiceGrpc.SchedulerServiceImplB
         }
     }
 
+    private Scheduler connect(XenonProto.CreateSchedulerRequest request) throws XenonException {
+        Credential credential = mapCredential(request);
+        return connectLimits.connect(request.getAdaptor(), request.getLocation(), () -> Scheduler.create( // NOSONAR, close is called on termination of server
+                request.getAdaptor(),
+                request.getLocation(),
+                credential,
+                request.getPropertiesMap()
+        ));
+    }
+
     String putScheduler(Scheduler scheduler, String username) throws StatusException {
         String id = scheduler.getAdaptorName() + "://" + username + "@" + scheduler.getLocation() + "#" + scheduler.hashCode();
         if (schedulers.containsKey(id)) {
             throw Status.ALREADY_EXISTS.augmentDescription("Scheduler with id: " + id).asException();
         } else {
             schedulers.put(id, scheduler);
+            leases.start(scheduler);
         }
         return id;
     }
@@ -197,8 +432,12 @@ public class SchedulerService extends SchedulerServiceGrpc.SchedulerServiceImplB
     public void close(XenonProto.Scheduler request, StreamObserver<XenonProto.Empty> responseObserver) {
         try {
             Scheduler scheduler = getScheduler(request);
+            removeFileSystem(scheduler);
             scheduler.close();
             schedulers.remove(request.getId());
+            leases.end(scheduler);
+            createRequests.remove(scheduler);
+            reconnects.remove(scheduler);
         } catch (Exception e) {
             responseObserver.onError(mapException(e));
         }
@@ -210,6 +449,9 @@ public class SchedulerService extends SchedulerServiceGrpc.SchedulerServiceImplB
         for (Map.Entry<String, Scheduler> entry : schedulers.entrySet()) {
             entry.getValue().close();
             schedulers.remove(entry.getKey());
+            leases.end(entry.getValue());
+            createRequests.remove(entry.getValue());
+            reconnects.remove(entry.getValue());
         }
     }
 
@@ -233,10 +475,12 @@ public class SchedulerService extends SchedulerServiceGrpc.SchedulerServiceImplB
 
     private Scheduler getScheduler(XenonProto.Scheduler request) throws StatusException {
         String id = request.getId();
-        if (!schedulers.containsKey(id)) {
+        Scheduler scheduler = schedulers.get(id);
+        if (scheduler == null) {
             throw Status.NOT_FOUND.augmentDescription("Scheduler with id: " + id).asException();
         }
-        return schedulers.get(id);
+        leases.renew(scheduler);
+        return scheduler;
     }
 
     @Override
@@ -371,7 +615,13 @@ public class SchedulerService extends SchedulerServiceGrpc.SchedulerServiceImplB
         try {
             Scheduler scheduler = getScheduler(request.getScheduler());
 
-            JobStatus status = scheduler.waitUntilDone(request.getJob().getId(), request.getTimeout());
+            JobStatus status;
+            startCall(scheduler);
+            try {
+                status = scheduler.waitUntilDone(request.getJob().getId(), request.getTimeout());
+            } finally {
+                endCall(scheduler);
+            }
 
             XenonProto.JobStatus response = mapJobStatus(status);
             responseObserver.onNext(response);
@@ -386,7 +636,13 @@ public class SchedulerService extends SchedulerServiceGrpc.SchedulerServiceImplB
         try {
             Scheduler scheduler = getScheduler(request.getScheduler());
 
-            JobStatus status = scheduler.waitUntilRunning(request.getJob().getId(), request.getTimeout());
+            JobStatus status;
+            startCall(scheduler);
+            try {
+                status = scheduler.waitUntilRunning(request.getJob().getId(), request.getTimeout());
+            } finally {
+                endCall(scheduler);
+            }
 
             XenonProto.JobStatus response = mapJobStatus(status);
             responseObserver.onNext(response);
@@ -418,15 +674,19 @@ public class SchedulerService extends SchedulerServiceGrpc.SchedulerServiceImplB
         return new StreamObserver<XenonProto.SubmitInteractiveJobRequest>() {
             private JobOutputStreamsForwarder forwarder;
             private Streams streams;
+            // scheduler is kept open while the client streams to the job
+            private Scheduler scheduler;
 
             @Override
             public void onNext(XenonProto.SubmitInteractiveJobRequest value) {
                 try {
                     if (streams == null) {
-                        Scheduler scheduler = getScheduler(value.getScheduler());
+                        Scheduler submitTo = getScheduler(value.getScheduler());
                         XenonProto.JobDescription requestDescription = value.getDescription();
                         JobDescription description = mapJobDescription(requestDescription);
-                        streams = scheduler.submitInteractiveJob(description);
+                        streams = submitTo.submitInteractiveJob(description);
+                        scheduler = submitTo;
+                        startCall(scheduler);
                         XenonProto.Job job = XenonProto.Job.newBuilder().setId(streams.getJobIdentifier()).build();
                         forwarder = new JobOutputStreamsForwarder(responseObserver, streams.getStderr(), streams.getStdout(), job);
                     }
@@ -440,6 +700,7 @@ public class SchedulerService extends SchedulerServiceGrpc.SchedulerServiceImplB
 
             @Override
             public void onError(Throwable t) {
+                endStreaming();
                 if (streams != null) {
                     try {
                         LOGGER.warn("Error from client", t);
@@ -454,6 +715,7 @@ public class SchedulerService extends SchedulerServiceGrpc.SchedulerServiceImplB
 
             @Override
             public void onCompleted() {
+                endStreaming();
                 if (streams != null) {
                     try {
                         streams.getStdin().close();
@@ -462,6 +724,13 @@ public class SchedulerService extends SchedulerServiceGrpc.SchedulerServiceImplB
                     }
                 }
             }
+
+            private void endStreaming() {
+                if (scheduler != null) {
+                    endCall(scheduler);
+                    scheduler = null;
+                }
+            }
         };
     }
 
@@ -481,6 +750,7 @@ public class SchedulerService extends SchedulerServiceGrpc.SchedulerServiceImplB
             if (!fileSystems.containsKey(fileSystemId)) {
                 fileSystems.put(fileSystemId, fileSystem);
             }
+            schedulerOfFileSystem.put(fileSystem, scheduler);
 
             XenonProto.FileSystem value = XenonProto.FileSystem.newBuilder()
                     .setId(fileSystemId)
@@ -0,0 +1,81 @@
+package nl.esciencecenter.xenon.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BackoffTest {
+    private long now;
+    private Backoff<String> backoff;
+
+    @Before
+    public void setUp() {
+        now = 0;
+        backoff = new Backoff<>(1000, 5000, () -> now);
+    }
+
+    @Test
+    public void isDue_neverFailed() {
+        assertTrue(backoff.isDue("fs1"));
+    }
+
+    @Test
+    public void failed_waitsInitialDelay() {
+        assertEquals(1000, backoff.failed("fs1"));
+
+        now = 999;
+        assertFalse(backoff.isDue("fs1"));
+        now = 1000;
+        assertTrue(backoff.isDue("fs1"));
+    }
+
+    @Test
+    public void failed_doublesUpToMax() {
+        assertEquals(1000, backoff.failed("fs1"));
+        assertEquals(2000, backoff.failed("fs1"));
+        assertEquals(4000, backoff.failed("fs1"));
+        assertEquals(5000, backoff.failed("fs1"));
+        assertEquals(5000, backoff.failed("fs1"));
+    }
+
+    @Test
+    public void failed_manyTimes_noOverflow() {
+        for (int i = 0; i < 100; i++) {
+            backoff.failed("fs1");
+        }
+
+        assertEquals(5000, backoff.failed("fs1"));
+    }
+
+    @Test
+    public void succeeded_resets() {
+        backoff.failed("fs1");
+        backoff.failed("fs1");
+
+        backoff.succeeded("fs1");
+
+        assertTrue(backoff.isDue("fs1"));
+        assertEquals(1000, backoff.failed("fs1"));
+    }
+
+    @Test
+    public void remove_forgetsFailures() {
+        backoff.failed("fs1");
+        backoff.failed("fs1");
+
+        backoff.remove("fs1");
+
+        assertTrue(backoff.isDue("fs1"));
+        assertEquals(1000, backoff.failed("fs1"));
+    }
+
+    @Test
+    public void failed_otherHandle_unaffected() {
+        backoff.failed("fs1");
+
+        assertTrue(backoff.isDue("fs2"));
+    }
+}
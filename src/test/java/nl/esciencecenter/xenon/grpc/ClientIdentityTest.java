@@ -0,0 +1,30 @@
+package nl.esciencecenter.xenon.grpc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetSocketAddress;
+
+import io.grpc.Attributes;
+import io.grpc.Grpc;
+import org.junit.Test;
+
+public class ClientIdentityTest {
+    @Test
+    public void identify_address_withoutPort() {
+        Attributes attributes = Attributes.newBuilder()
+            .set(Grpc.TRANSPORT_ATTR_REMOTE_ADDR, new InetSocketAddress("127.0.0.1", 43210))
+            .build();
+
+        assertEquals("127.0.0.1", ClientIdentity.identify(attributes));
+    }
+
+    @Test
+    public void identify_nothing_unknown() {
+        assertEquals(ClientIdentity.UNKNOWN, ClientIdentity.identify(Attributes.EMPTY));
+    }
+
+    @Test
+    public void current_outsideCall_unknown() {
+        assertEquals(ClientIdentity.UNKNOWN, ClientIdentity.current());
+    }
+}
@@ -0,0 +1,101 @@
+package nl.esciencecenter.xenon.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ConnectLimitsTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void host_plain() {
+        assertEquals("login.example.com", ConnectLimits.host("login.example.com"));
+    }
+
+    @Test
+    public void host_userAndPort() {
+        assertEquals("login.example.com:2222", ConnectLimits.host("someone@Login.example.com:2222"));
+    }
+
+    @Test
+    public void host_schemeAndPath() {
+        assertEquals("login.example.com", ConnectLimits.host("ssh://login.example.com/home/someone"));
+    }
+
+    @Test
+    public void host_local() {
+        assertEquals("", ConnectLimits.host("local://"));
+        assertEquals("", ConnectLimits.host("/home/someone"));
+        assertEquals("", ConnectLimits.host(""));
+    }
+
+    @Test
+    public void connect_sameHost_limited() throws Exception {
+        ConnectLimits limits = new ConnectLimits(2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger connecting = new AtomicInteger();
+        AtomicInteger maxConnecting = new AtomicInteger();
+
+        List<Future<String>> connects = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            connects.add(executor.submit(() -> limits.connect("sftp", "someone@login", () -> {
+                maxConnecting.accumulateAndGet(connecting.incrementAndGet(), Math::max);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                connecting.decrementAndGet();
+                return "connected";
+            })));
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Future<String> connect : connects) {
+            assertEquals("connected", connect.get(1, TimeUnit.SECONDS));
+        }
+
+        assertEquals(2, maxConnecting.get());
+    }
+
+    @Test
+    public void connect_otherHost_notLimited() throws Exception {
+        ConnectLimits limits = new ConnectLimits(1);
+        CountDownLatch connected = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> connects = new ArrayList<>();
+        for (String location : new String[]{"login1", "login2"}) {
+            connects.add(executor.submit(() -> limits.connect("sftp", location, () -> {
+                connected.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return location;
+            })));
+        }
+
+        assertTrue("both hosts connect at the same time", connected.await(1, TimeUnit.SECONDS));
+        release.countDown();
+        assertEquals("login1", connects.get(0).get(1, TimeUnit.SECONDS));
+        assertEquals("login2", connects.get(1).get(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,86 @@
+package nl.esciencecenter.xenon.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LeasesTest {
+    private long now;
+    private Leases<String> leases;
+
+    @Before
+    public void setUp() {
+        now = 0;
+        leases = new Leases<>(1000, () -> now);
+    }
+
+    @Test
+    public void expired_unused() {
+        leases.start("fs1");
+        now = 1000;
+
+        assertEquals(Collections.singletonList("fs1"), leases.expired());
+    }
+
+    @Test
+    public void expired_withinTimeout_none() {
+        leases.start("fs1");
+        now = 999;
+
+        assertTrue(leases.expired().isEmpty());
+    }
+
+    @Test
+    public void expired_renewed_none() {
+        leases.start("fs1");
+        now = 800;
+        leases.renew("fs1");
+        now = 1500;
+
+        assertTrue(leases.expired().isEmpty());
+    }
+
+    @Test
+    public void expired_ended_none() {
+        leases.start("fs1");
+        leases.end("fs1");
+        now = 2000;
+
+        assertTrue(leases.expired().isEmpty());
+    }
+
+    @Test
+    public void expired_staysUntilEnded() {
+        leases.start("fs1");
+        leases.start("fs2");
+        now = 1000;
+        leases.expired();
+
+        assertEquals(2, leases.expired().size());
+        assertTrue(leases.expired().containsAll(Arrays.asList("fs1", "fs2")));
+    }
+
+    @Test
+    public void renew_withoutLease_noLease() {
+        leases.renew("fs1");
+        now = 2000;
+
+        assertTrue(leases.expired().isEmpty());
+    }
+
+    @Test
+    public void start_disabled_noLease() {
+        Leases<String> disabled = new Leases<>(0, () -> now);
+        disabled.start("fs1");
+        now = 2000;
+
+        assertFalse(disabled.isEnabled());
+        assertTrue(disabled.expired().isEmpty());
+    }
+}
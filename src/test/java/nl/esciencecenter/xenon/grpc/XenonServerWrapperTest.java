@@ -41,6 +41,95 @@ public class XenonServerWrapperTest {
 
         assertEquals("Default port", XenonServerWrapper.DEFAULT_PORT, wrapper.getPort());
         assertFalse("no TLS", wrapper.getUseTLS());
+        assertEquals("No metadata cache", Integer.valueOf(0), wrapper.getMetadataCacheSize());
+        assertEquals("No rate limit", Long.valueOf(0), wrapper.getMaxStreamRate());
+    }
+
+    @Test
+    public void parseArgs_metadataCache() throws ArgumentParserException {
+        XenonServerWrapper wrapper = new XenonServerWrapper();
+
+        wrapper.parseArgs(new String[]{"--metadata-cache-size", "1000", "--metadata-cache-ttl", "500"});
+
+        assertEquals(Integer.valueOf(1000), wrapper.getMetadataCacheSize());
+        assertEquals(Long.valueOf(500), wrapper.getMetadataCacheTtl());
+    }
+
+    @Test(expected = ArgumentParserException.class)
+    public void parseArgs_negativeMetadataCacheSize() throws ArgumentParserException {
+        XenonServerWrapper wrapper = new XenonServerWrapper();
+
+        wrapper.parseArgs(new String[]{"--metadata-cache-size", "-1"});
+    }
+
+    @Test
+    public void parseArgs_rateLimits() throws ArgumentParserException {
+        XenonServerWrapper wrapper = new XenonServerWrapper();
+
+        wrapper.parseArgs(new String[]{"--max-stream-rate", "1000", "--max-filesystem-rate", "2000", "--max-client-rate", "3000"});
+
+        assertEquals(Long.valueOf(1000), wrapper.getMaxStreamRate());
+        assertEquals(Long.valueOf(2000), wrapper.getMaxFileSystemRate());
+        assertEquals(Long.valueOf(3000), wrapper.getMaxClientRate());
+    }
+
+    @Test(expected = ArgumentParserException.class)
+    public void parseArgs_negativeRate() throws ArgumentParserException {
+        XenonServerWrapper wrapper = new XenonServerWrapper();
+
+        wrapper.parseArgs(new String[]{"--max-client-rate", "-1"});
+    }
+
+    @Test
+    public void parseArgs_fileSystemIdleTimeout() throws ArgumentParserException {
+        XenonServerWrapper wrapper = new XenonServerWrapper();
+
+        wrapper.parseArgs(new String[]{"--filesystem-idle-timeout", "60000"});
+
+        assertEquals(Long.valueOf(60000), wrapper.getFileSystemIdleTimeout());
+    }
+
+    @Test
+    public void parseArgs_leaseTimeout() throws ArgumentParserException {
+        XenonServerWrapper wrapper = new XenonServerWrapper();
+
+        wrapper.parseArgs(new String[]{"--lease-timeout", "3600000"});
+
+        assertEquals(Long.valueOf(3600000), wrapper.getLeaseTimeout());
+    }
+
+    @Test(expected = ArgumentParserException.class)
+    public void parseArgs_negativeLeaseTimeout() throws ArgumentParserException {
+        XenonServerWrapper wrapper = new XenonServerWrapper();
+
+        wrapper.parseArgs(new String[]{"--lease-timeout", "-1"});
+    }
+
+    @Test
+    public void parseArgs_maxConnectsPerHost() throws ArgumentParserException {
+        XenonServerWrapper wrapper = new XenonServerWrapper();
+
+        wrapper.parseArgs(new String[]{"--max-connects-per-host", "2"});
+
+        assertEquals(Integer.valueOf(2), wrapper.getMaxConnectsPerHost());
+    }
+
+    @Test
+    public void parseArgs_defaultMaxConnectsPerHost() throws ArgumentParserException {
+        XenonServerWrapper wrapper = new XenonServerWrapper();
+
+        wrapper.parseArgs(new String[]{});
+
+        assertEquals(Integer.valueOf(ConnectLimits.DEFAULT_MAX_CONNECTS_PER_HOST), wrapper.getMaxConnectsPerHost());
+    }
+
+    @Test
+    public void parseArgs_healthCheckInterval() throws ArgumentParserException {
+        XenonServerWrapper wrapper = new XenonServerWrapper();
+
+        wrapper.parseArgs(new String[]{"--health-check-interval", "30000"});
+
+        assertEquals(Long.valueOf(30000), wrapper.getHealthCheckInterval());
     }
 
     @Test
@@ -0,0 +1,107 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+public class BatchLookupTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<XenonProto.Path> requestPaths = Arrays.asList(
+        XenonProto.Path.newBuilder().setPath("/data/a").build(),
+        XenonProto.Path.newBuilder().setPath("/data/b").build()
+    );
+    private final List<Path> paths = Arrays.asList(new Path("/data/a"), new Path("/data/b"));
+    private ServerCallStreamObserver<XenonProto.BatchPathResponse> observer;
+    private final AtomicBoolean ready = new AtomicBoolean(true);
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        observer = mock(ServerCallStreamObserver.class);
+        when(observer.isReady()).thenAnswer(invocation -> ready.get());
+        when(observer.isCancelled()).thenAnswer(invocation -> cancelled.get());
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void run_ready_sendsAllAndCompletes() {
+        new BatchLookup(new Semaphore(1), executor).run(requestPaths, paths, observer, (path, result) -> result.setExists(true));
+
+        verify(observer, timeout(1000).times(2)).onNext(any());
+        verify(observer, timeout(1000)).onCompleted();
+    }
+
+    @Test
+    public void run_notReady_sendsWhenReady() {
+        ready.set(false);
+
+        new BatchLookup(new Semaphore(1), executor).run(requestPaths, paths, observer, (path, result) -> result.setExists(true));
+
+        verify(observer, after(100).never()).onNext(any());
+        ArgumentCaptor<Runnable> onReady = ArgumentCaptor.forClass(Runnable.class);
+        verify(observer).setOnReadyHandler(onReady.capture());
+        ready.set(true);
+        onReady.getValue().run();
+        verify(observer, timeout(1000).times(2)).onNext(any());
+        verify(observer, timeout(1000)).onCompleted();
+    }
+
+    @Test
+    public void run_cancelled_stopsSending() throws InterruptedException {
+        CountDownLatch lookupStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        new BatchLookup(new Semaphore(1), executor).run(requestPaths, paths, observer, (path, result) -> {
+            lookupStarted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        lookupStarted.await();
+        ArgumentCaptor<Runnable> onCancel = ArgumentCaptor.forClass(Runnable.class);
+        verify(observer).setOnCancelHandler(onCancel.capture());
+        cancelled.set(true);
+        onCancel.getValue().run();
+        release.countDown();
+
+        verify(observer, after(200).never()).onNext(any());
+        verify(observer, never()).onCompleted();
+    }
+
+    @Test
+    public void run_empty_completes() {
+        new BatchLookup(new Semaphore(1), executor).run(Arrays.asList(), Arrays.asList(), observer, (path, result) -> result.setExists(true));
+
+        verify(observer, timeout(1000)).onCompleted();
+        verify(observer, times(0)).onNext(any());
+    }
+}
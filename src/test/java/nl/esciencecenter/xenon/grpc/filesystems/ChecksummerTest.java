@@ -0,0 +1,57 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+
+public class ChecksummerTest {
+    private static long crc32c(byte[] content, int offset, int length) {
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(content, offset, length);
+        return crc32c.getValue();
+    }
+
+    @Test
+    public void update_chunks() {
+        byte[] content = "Some content".getBytes();
+        Checksummer checksummer = new Checksummer(false);
+
+        checksummer.update(ByteString.copyFrom(content, 0, 5));
+        checksummer.update(ByteString.copyFrom(content, 5, 7));
+
+        assertEquals(crc32c(content, 0, content.length), checksummer.getCrc32c());
+    }
+
+    @Test
+    public void getChecksums_withoutSha256() {
+        Checksummer checksummer = new Checksummer(false);
+
+        checksummer.update(ByteString.copyFromUtf8("Some content"));
+
+        assertEquals(ByteString.EMPTY, checksummer.getChecksums().getSha256());
+    }
+
+    @Test
+    public void combineCrc32c() {
+        byte[] content = new byte[100_000];
+        new Random(42).nextBytes(content);
+        int split = 12_345;
+
+        long combined = Checksummer.combineCrc32c(crc32c(content, 0, split), crc32c(content, split, content.length - split), content.length - split);
+
+        assertEquals(crc32c(content, 0, content.length), combined);
+    }
+
+    @Test
+    public void combineCrc32c_emptySecondBlock() {
+        byte[] content = "Some content".getBytes();
+
+        long combined = Checksummer.combineCrc32c(crc32c(content, 0, content.length), crc32c(content, 0, 0), 0);
+
+        assertEquals(crc32c(content, 0, content.length), combined);
+    }
+}
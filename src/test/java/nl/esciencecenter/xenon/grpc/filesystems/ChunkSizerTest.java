@@ -0,0 +1,66 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ChunkSizerTest {
+    @Test
+    public void fixed() {
+        ChunkSizer sizer = new ChunkSizer(1000);
+
+        sizer.sent(1000);
+        sizer.sent(1000);
+
+        assertEquals(1000, sizer.size());
+    }
+
+    @Test
+    public void fixed_tooLarge() {
+        ChunkSizer sizer = new ChunkSizer(Integer.MAX_VALUE);
+
+        assertEquals(ChunkSizer.MAX_CHUNK_SIZE, sizer.size());
+    }
+
+    @Test
+    public void adaptive_initial() {
+        ChunkSizer sizer = new ChunkSizer(0);
+
+        assertEquals(ChunkSizer.DEFAULT_CHUNK_SIZE, sizer.size());
+    }
+
+    @Test
+    public void adaptive_fastStream_grows() {
+        ChunkSizer sizer = new ChunkSizer(0);
+
+        sizer.sent(sizer.size());
+        sizer.sent(sizer.size());
+        sizer.sent(sizer.size());
+
+        assertEquals(ChunkSizer.DEFAULT_CHUNK_SIZE * 4, sizer.size());
+    }
+
+    @Test
+    public void adaptive_fastStream_growsUpToMax() {
+        ChunkSizer sizer = new ChunkSizer(0);
+
+        for (int i = 0; i < 20; i++) {
+            sizer.sent(sizer.size());
+        }
+
+        assertEquals(ChunkSizer.MAX_ADAPTIVE_CHUNK_SIZE, sizer.size());
+    }
+
+    @Test
+    public void adaptive_slowStream_shrinks() throws InterruptedException {
+        ChunkSizer sizer = new ChunkSizer(0);
+        sizer.sent(sizer.size());
+        sizer.sent(sizer.size());
+        sizer.sent(sizer.size());
+
+        Thread.sleep(50);
+        sizer.sent(sizer.size());
+
+        assertEquals(ChunkSizer.DEFAULT_CHUNK_SIZE * 2, sizer.size());
+    }
+}
@@ -0,0 +1,174 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.CopyMode;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+public class ChunkedCopyTest {
+    private static final int CHUNK_SIZE = 1000;
+    private static final int SIZE = 10 * CHUNK_SIZE;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CopyLimits limits = new CopyLimits(CopyLimits.DEFAULT_MAX_COPIES, CopyLimits.DEFAULT_MAX_COPIES_PER_FILESYSTEM);
+    private final Path sourcePath = new Path("/data/big");
+    private final byte[] content = new byte[SIZE];
+    private FileSystem source;
+    private FileSystem target;
+    private File destination;
+
+    @Before
+    public void setUp() throws XenonException {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        source = mock(FileSystem.class);
+        when(source.getAdaptorName()).thenReturn("sftp");
+        target = mock(FileSystem.class);
+        when(target.getAdaptorName()).thenReturn("file");
+        when(target.getLocation()).thenReturn("");
+        when(target.getWorkingDirectory()).thenReturn(new Path("/"));
+        destination = new File(temporaryFolder.getRoot(), "big");
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private XenonProto.CopyStatus copy(CopyMode mode) throws InterruptedException {
+        ChunkedCopy copy = new ChunkedCopy(source, sourcePath, target, new Path(destination.getAbsolutePath()), SIZE, CHUNK_SIZE, mode, 4, limits, new Throttle(Collections.emptyList(), () -> { }), executor);
+        copy.start();
+        return copy.waitUntilDone(0);
+    }
+
+    @Test
+    public void copy_chunks() throws XenonException, InterruptedException, IOException {
+        when(source.readFromFile(sourcePath)).thenAnswer(invocation -> new ByteArrayInputStream(content));
+
+        XenonProto.CopyStatus status = copy(CopyMode.CREATE);
+
+        assertEquals("DONE", status.getState());
+        assertEquals(SIZE, status.getBytesCopied());
+        assertEquals(SIZE, status.getBytesToCopy());
+        assertEquals(10, status.getChunksCount());
+        assertTrue(status.getChunksList().stream().allMatch(chunk -> chunk.getDone() && chunk.getAttempts() == 1));
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    public void copy_failedChunk_retried() throws XenonException, InterruptedException, IOException {
+        AtomicInteger reads = new AtomicInteger();
+        when(source.readFromFile(sourcePath)).thenAnswer(invocation -> {
+            if (reads.getAndIncrement() == 0) {
+                return failingStream();
+            }
+            return new ByteArrayInputStream(content);
+        });
+
+        XenonProto.CopyStatus status = copy(CopyMode.CREATE);
+
+        assertEquals("DONE", status.getState());
+        assertEquals("one chunk tried twice", 11, status.getChunksList().stream().mapToInt(XenonProto.CopyStatus.Chunk::getAttempts).sum());
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    public void copy_chunkFailsTooOften() throws XenonException, InterruptedException {
+        when(source.readFromFile(sourcePath)).thenAnswer(invocation -> failingStream());
+
+        XenonProto.CopyStatus status = copy(CopyMode.CREATE);
+
+        assertEquals("FAILED", status.getState());
+        assertTrue(status.getDone());
+        assertTrue(status.getErrorMessage(), status.getErrorMessage().contains("failed " + ChunkedCopy.MAX_ATTEMPTS + " times"));
+    }
+
+    @Test
+    public void copy_chunkThrowsUnexpectedly_failed() throws XenonException, InterruptedException {
+        when(source.readFromFile(sourcePath)).thenThrow(new IllegalStateException("adaptor broke"));
+
+        XenonProto.CopyStatus status = copy(CopyMode.CREATE);
+
+        assertEquals("FAILED", status.getState());
+        assertTrue(status.getDone());
+        assertTrue(status.getErrorMessage(), status.getErrorMessage().contains("adaptor broke"));
+    }
+
+    @Test
+    public void copy_createExisting_alreadyExists() throws InterruptedException, IOException {
+        assertTrue(destination.createNewFile());
+
+        XenonProto.CopyStatus status = copy(CopyMode.CREATE);
+
+        assertEquals("FAILED", status.getState());
+        assertEquals(XenonProto.CopyStatus.ErrorType.ALREADY_EXISTS, status.getErrorType());
+    }
+
+    @Test
+    public void copy_ignoreExisting_untouched() throws InterruptedException, IOException {
+        Files.write(destination.toPath(), new byte[]{1, 2, 3});
+
+        XenonProto.CopyStatus status = copy(CopyMode.IGNORE);
+
+        assertEquals("DONE", status.getState());
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    public void canCopy() {
+        Path targetPath = new Path(destination.getAbsolutePath());
+
+        FileSystem webdav = mock(FileSystem.class);
+        when(webdav.getAdaptorName()).thenReturn("webdav");
+
+        assertTrue("large file to local", ChunkedCopy.canCopy(source, target, targetPath, 2 * ChunkedCopy.MIN_CHUNK_SIZE));
+        assertTrue("small file", !ChunkedCopy.canCopy(source, target, targetPath, ChunkedCopy.MIN_CHUNK_SIZE));
+        assertTrue("remote target", !ChunkedCopy.canCopy(source, source, targetPath, 2 * ChunkedCopy.MIN_CHUNK_SIZE));
+        assertTrue("source which can not seek", !ChunkedCopy.canCopy(webdav, target, targetPath, 2 * ChunkedCopy.MIN_CHUNK_SIZE));
+    }
+
+    // Stream which fails after reading a few bytes of the content
+    private InputStream failingStream() {
+        return new FilterInputStream(new ByteArrayInputStream(content)) {
+            private int read = 0;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (read > 10) {
+                    throw new IOException("Connection reset");
+                }
+                int n = super.read(b, off, Math.min(len, 11 - read));
+                read += n;
+                return n;
+            }
+        };
+    }
+}
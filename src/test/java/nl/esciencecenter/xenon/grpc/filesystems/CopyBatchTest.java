@@ -0,0 +1,63 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.filesystems.CopyMode;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+public class CopyBatchTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CopyLimits limits = new CopyLimits(CopyLimits.DEFAULT_MAX_COPIES, CopyLimits.DEFAULT_MAX_COPIES_PER_FILESYSTEM);
+    private final FileSystem filesystem = mock(FileSystem.class);
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void waitUntilDone_emptyBatch_returns() throws Exception {
+        // planning finishes after the caller started waiting
+        CopyBatch batch = new CopyBatch(filesystem, filesystem, () -> {
+            Thread.sleep(50);
+            return Collections.emptyList();
+        }, CopyMode.CREATE, false, limits, executor);
+
+        batch.start();
+        Future<XenonProto.CopyStatus> waiting = executor.submit(() -> batch.waitUntilDone(0));
+        XenonProto.CopyStatus status = waiting.get(5, TimeUnit.SECONDS);
+
+        assertTrue(status.getDone());
+        assertEquals("DONE", status.getState());
+        assertEquals(0, status.getFilesToCopy());
+    }
+
+    @Test
+    public void waitUntilDone_planningThrowsUnexpectedly_failed() throws Exception {
+        CopyBatch batch = new CopyBatch(filesystem, filesystem, () -> {
+            throw new IllegalStateException("listing broke");
+        }, CopyMode.CREATE, false, limits, executor);
+
+        batch.start();
+        Future<XenonProto.CopyStatus> waiting = executor.submit(() -> batch.waitUntilDone(0));
+        XenonProto.CopyStatus status = waiting.get(5, TimeUnit.SECONDS);
+
+        assertTrue(status.getDone());
+        assertEquals("FAILED", status.getState());
+        assertThat(status.getErrorMessage(), containsString("listing broke"));
+    }
+}
@@ -0,0 +1,189 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+public class FileSystemPoolTest {
+    private final XenonProto.CreateFileSystemRequest request = buildRequest("host1");
+    private final List<FileSystem> created = new ArrayList<>();
+    private long now;
+
+    @Before
+    public void setUp() {
+        now = 0;
+    }
+
+    private static XenonProto.CreateFileSystemRequest buildRequest(String location) {
+        return XenonProto.CreateFileSystemRequest.newBuilder()
+            .setAdaptor("sftp")
+            .setLocation(location)
+            .setPasswordCredential(XenonProto.PasswordCredential.newBuilder().setUsername("someone").setPassword("secret"))
+            .putProperties("xenon.adaptors.filesystems.sftp.strictHostKeyChecking", "false")
+            .build();
+    }
+
+    private FileSystem create() throws XenonException {
+        FileSystem filesystem = mock(FileSystem.class);
+        when(filesystem.isOpen()).thenReturn(true);
+        created.add(filesystem);
+        return filesystem;
+    }
+
+    @Test
+    public void acquire_sameRequest_shared() throws XenonException {
+        FileSystemPool pool = new FileSystemPool(1000, () -> now);
+
+        FileSystem first = pool.acquire(request, this::create);
+        FileSystem second = pool.acquire(buildRequest("host1"), this::create);
+
+        assertSame(first, second);
+        assertEquals("connected once", 1, created.size());
+    }
+
+    @Test
+    public void acquire_noIdleTimeout_notShared() throws XenonException {
+        FileSystemPool pool = new FileSystemPool(0, () -> now);
+
+        FileSystem first = pool.acquire(request, this::create);
+        FileSystem second = pool.acquire(buildRequest("host1"), this::create);
+
+        assertNotSame(first, second);
+        assertSame("request kept for reconnects", request, pool.getRequest(first));
+        assertTrue(pool.release(first));
+        verify(first).close();
+        verify(second, never()).close();
+        assertTrue(pool.isPooled(second));
+    }
+
+    @Test
+    public void replace_keepsReferences() throws XenonException {
+        FileSystemPool pool = new FileSystemPool(1000, () -> now);
+        FileSystem broken = pool.acquire(request, this::create);
+        pool.acquire(request, this::create);
+        FileSystem reconnected = create();
+
+        assertTrue(pool.replace(broken, reconnected));
+
+        assertSame(request, pool.getRequest(reconnected));
+        assertFalse("replaced filesystem is no longer pooled", pool.isPooled(broken));
+        assertSame("acquire shares reconnected filesystem", reconnected, pool.acquire(request, this::create));
+        assertFalse(pool.release(reconnected));
+        assertFalse(pool.release(reconnected));
+        assertTrue(pool.release(reconnected));
+        now += 1000;
+        pool.evictIdle();
+        verify(reconnected).close();
+        verify(broken, never()).close();
+    }
+
+    @Test
+    public void acquire_otherLocation_notShared() throws XenonException {
+        FileSystemPool pool = new FileSystemPool(1000, () -> now);
+
+        FileSystem first = pool.acquire(request, this::create);
+        FileSystem second = pool.acquire(buildRequest("host2"), this::create);
+
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void acquire_closedFileSystem_reconnects() throws XenonException {
+        FileSystemPool pool = new FileSystemPool(1000, () -> now);
+        FileSystem first = pool.acquire(request, this::create);
+        when(first.isOpen()).thenReturn(false);
+
+        FileSystem second = pool.acquire(request, this::create);
+
+        assertNotSame(first, second);
+        verify(first).close();
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void release_lastReference_closes() throws XenonException {
+        FileSystemPool pool = new FileSystemPool(1000, () -> now);
+        FileSystem filesystem = pool.acquire(request, this::create);
+        pool.acquire(request, this::create);
+
+        assertFalse("still referenced", pool.release(filesystem));
+        assertTrue("unreferenced", pool.release(filesystem));
+        verify(filesystem, never()).close();
+        now += 1000;
+        pool.evictIdle();
+        verify(filesystem).close();
+        assertFalse(pool.isPooled(filesystem));
+    }
+
+    @Test
+    public void release_idleTimeout_keptWarm() throws XenonException {
+        FileSystemPool pool = new FileSystemPool(1000, () -> now);
+        FileSystem filesystem = pool.acquire(request, this::create);
+
+        assertTrue(pool.release(filesystem));
+        now += 500;
+        pool.evictIdle();
+        FileSystem reused = pool.acquire(request, this::create);
+
+        assertSame(filesystem, reused);
+        verify(filesystem, never()).close();
+    }
+
+    @Test
+    public void evictIdle_afterIdleTimeout_closes() throws XenonException {
+        FileSystemPool pool = new FileSystemPool(1000, () -> now);
+        FileSystem filesystem = pool.acquire(request, this::create);
+        pool.release(filesystem);
+
+        now += 1000;
+        pool.evictIdle();
+
+        verify(filesystem).close();
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void evictIdle_referenced_kept() throws XenonException {
+        FileSystemPool pool = new FileSystemPool(1000, () -> now);
+        FileSystem filesystem = pool.acquire(request, this::create);
+
+        now += 5000;
+        pool.evictIdle();
+
+        verify(filesystem, never()).close();
+    }
+
+    @Test
+    public void release_notPooled_unreferenced() {
+        FileSystemPool pool = new FileSystemPool(0, () -> now);
+
+        assertTrue(pool.release(mock(FileSystem.class)));
+    }
+
+    @Test
+    public void closeAll() throws XenonException {
+        FileSystemPool pool = new FileSystemPool(1000, () -> now);
+        FileSystem filesystem = pool.acquire(request, this::create);
+
+        pool.closeAll();
+
+        verify(filesystem).close();
+        assertEquals(0, pool.size());
+    }
+}
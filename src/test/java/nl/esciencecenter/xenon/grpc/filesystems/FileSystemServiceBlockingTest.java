@@ -4,10 +4,15 @@ import static java.util.UUID.randomUUID;
 import static nl.esciencecenter.xenon.grpc.MapUtils.empty;
 import static nl.esciencecenter.xenon.utils.LocalFileSystemUtils.isWindows;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -15,28 +20,40 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.stream.Stream;
+import java.util.zip.CRC32C;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.FieldMask;
 import com.google.protobuf.ProtocolStringList;
 import io.grpc.ManagedChannel;
 import io.grpc.Server;
 import io.grpc.StatusException;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.MockitoAnnotations;
 
 import nl.esciencecenter.xenon.XenonException;
@@ -46,6 +63,7 @@ import nl.esciencecenter.xenon.filesystems.CopyCancelledException;
 import nl.esciencecenter.xenon.filesystems.CopyMode;
 import nl.esciencecenter.xenon.filesystems.CopyStatus;
 import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
 import nl.esciencecenter.xenon.filesystems.Path;
 import nl.esciencecenter.xenon.filesystems.PathAttributes;
 import nl.esciencecenter.xenon.filesystems.PosixFilePermission;
@@ -63,6 +81,9 @@ public class FileSystemServiceBlockingTest {
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private XenonProto.FileSystem createFileSystem() {
         return XenonProto.FileSystem.newBuilder()
             .setId(filesystemId)
@@ -82,6 +103,13 @@ public class FileSystemServiceBlockingTest {
             .build();
     }
 
+    private XenonProto.ReadFromFileRequest buildReadFromFileRequest(String path) {
+        return XenonProto.ReadFromFileRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setPath(buildPath(path))
+            .build();
+    }
+
     @Before
     public void setUp() throws IOException, StatusException, XenonException {
         service = new FileSystemService();
@@ -144,6 +172,86 @@ public class FileSystemServiceBlockingTest {
             .build();
     }
 
+    @Test
+    public void removeFileSystem_unregistered() {
+        thrown.expectMessage("NOT_FOUND: File system with id: " + filesystemId);
+
+        service.removeFileSystem(filesystem);
+
+        client.getWorkingDirectory(createFileSystem());
+    }
+
+    @Test
+    public void closeExpiredFileSystems_unused_closed() throws XenonException, InterruptedException {
+        FileSystemService service = new FileSystemService();
+        service.setLeaseTimeout(1);
+        FileSystem unused = mock(FileSystem.class);
+        when(unused.getAdaptorName()).thenReturn("sftp");
+        when(unused.getLocation()).thenReturn("remote");
+        service.putFileSystem(unused, "someone");
+        Thread.sleep(5);
+
+        service.closeExpiredFileSystems();
+
+        verify(unused, timeout(1000)).close();
+    }
+
+    @Test
+    public void closeExpiredFileSystems_abandonedUpload_abortedAndClosed() throws XenonException, InterruptedException {
+        FileSystemService service = new FileSystemService();
+        service.setLeaseTimeout(200);
+        FileSystem unused = mock(FileSystem.class);
+        when(unused.getAdaptorName()).thenReturn("sftp");
+        when(unused.getLocation()).thenReturn("remote");
+        String id = service.putFileSystem(unused, "someone");
+        XenonProto.CreateMultipartUploadRequest request = XenonProto.CreateMultipartUploadRequest.newBuilder()
+            .setFilesystem(XenonProto.FileSystem.newBuilder().setId(id))
+            .setPath(buildPath("/data/upload"))
+            .build();
+        @SuppressWarnings("unchecked")
+        StreamObserver<XenonProto.MultipartUpload> created = mock(StreamObserver.class);
+        service.createMultipartUpload(request, created);
+        verify(created).onCompleted();
+        Thread.sleep(250);
+
+        service.closeExpiredFileSystems();
+
+        verify(unused, timeout(1000)).close();
+    }
+
+    @Test
+    public void closeExpiredFileSystems_targetOfRunningCopy_keptOpen() throws XenonException, InterruptedException {
+        FileSystemService service = new FileSystemService();
+        service.setLeaseTimeout(200);
+        FileSystem source = mock(FileSystem.class);
+        when(source.getAdaptorName()).thenReturn("file");
+        when(source.getLocation()).thenReturn("/");
+        FileSystem target = mock(FileSystem.class);
+        when(target.getAdaptorName()).thenReturn("sftp");
+        when(target.getLocation()).thenReturn("remote");
+        String sourceId = service.putFileSystem(source, "someone");
+        String targetId = service.putFileSystem(target, "someone");
+        XenonProto.CopyRequest request = XenonProto.CopyRequest.newBuilder()
+            .setFilesystem(XenonProto.FileSystem.newBuilder().setId(sourceId))
+            .setSource(buildPath("/data/big"))
+            .setDestinationFilesystem(XenonProto.FileSystem.newBuilder().setId(targetId))
+            .setDestination(buildPath("/backup/big"))
+            .build();
+        when(source.copy(new Path("/data/big"), target, new Path("/backup/big"), CopyMode.CREATE, false)).thenReturn("COPY-1");
+        CopyStatus running = buildCopyStatus("RUNNING", 512L);
+        when(source.getStatus("COPY-1")).thenReturn(running);
+        @SuppressWarnings("unchecked")
+        StreamObserver<XenonProto.CopyOperation> copied = mock(StreamObserver.class);
+        service.copy(request, copied);
+        verify(copied).onCompleted();
+        Thread.sleep(250);
+
+        service.closeExpiredFileSystems();
+
+        verify(target, never()).close();
+        verify(source, never()).close();
+    }
+
     @Test
     public void closeAllFileSystems() throws XenonException, StatusException {
         FileSystemService service = new FileSystemService();
@@ -318,7 +426,7 @@ public class FileSystemServiceBlockingTest {
     @Test
     public void getAttributes() throws XenonException {
         String filename = "/etc/passwd";
-        XenonProto.PathRequest request = buildPathRequest(filename);
+        XenonProto.GetAttributesRequest request = buildGetAttributesRequest(filename);
         PathAttributesImplementation attribs = buildPathAttributesOfRegularFile(filename);
         when(filesystem.getAttributes(new Path(filename))).thenReturn(attribs);
 
@@ -336,12 +444,163 @@ public class FileSystemServiceBlockingTest {
         thrown.expectMessage("UNAVAILABLE: nl.esciencecenter.xenon.adaptors.NotConnectedException: sftp adaptor: Not connected");
 
         String filename = "/etc/passwd";
-        XenonProto.PathRequest request = buildPathRequest(filename);
+        XenonProto.GetAttributesRequest request = buildGetAttributesRequest(filename);
         when(filesystem.getAttributes(new Path(filename))).thenThrow(new NotConnectedException("sftp", "Not connected"));
 
         client.getAttributes(request);
     }
 
+    @Test
+    public void getAttributes_masked() throws XenonException {
+        String filename = "/etc/passwd";
+        XenonProto.GetAttributesRequest request = buildGetAttributesRequest(filename).toBuilder()
+            .setMask(FieldMask.newBuilder().addPaths("size").addPaths("lastModifiedTime"))
+            .build();
+        PathAttributesImplementation attribs = buildPathAttributesOfRegularFile(filename);
+        attribs.setSize(42L);
+        attribs.setLastModifiedTime(3L);
+        attribs.setOwner("someuser");
+        when(filesystem.getAttributes(new Path(filename))).thenReturn(attribs);
+
+        XenonProto.PathAttributes response = client.getAttributes(request);
+
+        XenonProto.PathAttributes expected = XenonProto.PathAttributes.newBuilder()
+            .setPath(buildPath(filename))
+            .setSize(42L)
+            .setLastModifiedTime(3L)
+            .build();
+        assertEquals(expected, response);
+    }
+
+    @Test
+    public void getAttributes_unknownMaskField() throws XenonException {
+        thrown.expectMessage("INVALID_ARGUMENT: Unknown PathAttributes field in mask: color");
+
+        XenonProto.GetAttributesRequest request = buildGetAttributesRequest("/etc/passwd").toBuilder()
+            .setMask(FieldMask.newBuilder().addPaths("color"))
+            .build();
+
+        client.getAttributes(request);
+    }
+
+    @Test
+    public void getAttributes_metadataCache() throws XenonException {
+        service.setMetadataCache(100, 60000);
+        String filename = "/etc/passwd";
+        when(filesystem.getAttributes(new Path(filename))).thenReturn(buildPathAttributesOfRegularFile(filename));
+
+        client.getAttributes(buildGetAttributesRequest(filename));
+        XenonProto.PathAttributes response = client.getAttributes(buildGetAttributesRequest(filename));
+
+        assertEquals(buildPath(filename), response.getPath());
+        verify(filesystem, times(1)).getAttributes(new Path(filename));
+    }
+
+    @Test
+    public void exists_metadataCache_invalidatedByCreateFile() throws XenonException {
+        service.setMetadataCache(100, 60000);
+        Path path = new Path("/somefile");
+        when(filesystem.exists(path)).thenReturn(false, true);
+
+        assertFalse(client.exists(buildPathRequest("/somefile")).getValue());
+        assertFalse("cached", client.exists(buildPathRequest("/somefile")).getValue());
+        client.createFile(buildPathRequest("/somefile"));
+
+        assertTrue(client.exists(buildPathRequest("/somefile")).getValue());
+        verify(filesystem, times(2)).exists(path);
+    }
+
+    @Test
+    public void list_metadataCache_invalidatedByDeleteOfEntry() throws XenonException {
+        service.setMetadataCache(100, 60000);
+        XenonProto.ListRequest request = XenonProto.ListRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setDir(buildPath("/etc"))
+            .build();
+        when(filesystem.list(new Path("/etc"), false)).thenReturn(Collections.singletonList(
+            buildPathAttributesOfRegularFile("/etc/passwd")
+        ));
+
+        client.list(request).forEachRemaining(entry -> { });
+        client.getAttributes(buildGetAttributesRequest("/etc/passwd"));
+        client.list(request).forEachRemaining(entry -> { });
+        client.delete(XenonProto.DeleteRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setPath(buildPath("/etc/passwd"))
+            .build());
+        client.list(request).forEachRemaining(entry -> { });
+
+        verify(filesystem, times(2)).list(new Path("/etc"), false);
+        verify(filesystem, never()).getAttributes(new Path("/etc/passwd"));
+    }
+
+    @Test
+    public void existsBatch() throws XenonException {
+        XenonProto.BatchPathRequest request = XenonProto.BatchPathRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .addPaths(buildPath("/data/a"))
+            .addPaths(buildPath("/data/b"))
+            .addPaths(buildPath("/data/c"))
+            .build();
+        when(filesystem.exists(new Path("/data/a"))).thenReturn(true);
+        when(filesystem.exists(new Path("/data/b"))).thenReturn(false);
+        when(filesystem.exists(new Path("/data/c"))).thenThrow(new NotConnectedException("sftp", "Not connected"));
+
+        List<XenonProto.BatchPathResponse> response = batchResponses(client.existsBatch(request));
+
+        List<XenonProto.BatchPathResponse> expected = Arrays.asList(
+            XenonProto.BatchPathResponse.newBuilder().setIndex(0).setPath(buildPath("/data/a")).setExists(true).build(),
+            XenonProto.BatchPathResponse.newBuilder().setIndex(1).setPath(buildPath("/data/b")).build(),
+            XenonProto.BatchPathResponse.newBuilder().setIndex(2).setPath(buildPath("/data/c"))
+                .setErrorMessage("sftp adaptor: Not connected")
+                .setErrorType(XenonProto.BatchPathResponse.ErrorType.NOT_CONNECTED)
+                .build()
+        );
+        assertEquals(expected, response);
+    }
+
+    @Test
+    public void getAttributesBatch() throws XenonException {
+        XenonProto.BatchPathRequest request = XenonProto.BatchPathRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .addPaths(buildPath("/data/a"))
+            .addPaths(buildPath("/data/missing"))
+            .setMask(FieldMask.newBuilder().addPaths("is_regular"))
+            .build();
+        PathAttributesImplementation attribs = buildPathAttributesOfRegularFile("/data/a");
+        attribs.setSize(42L);
+        when(filesystem.getAttributes(new Path("/data/a"))).thenReturn(attribs);
+        when(filesystem.getAttributes(new Path("/data/missing"))).thenThrow(new NoSuchPathException("file", "No such path"));
+
+        List<XenonProto.BatchPathResponse> response = batchResponses(client.getAttributesBatch(request));
+
+        List<XenonProto.BatchPathResponse> expected = Arrays.asList(
+            XenonProto.BatchPathResponse.newBuilder().setIndex(0).setPath(buildPath("/data/a"))
+                .setAttributes(XenonProto.PathAttributes.newBuilder().setPath(buildPath("/data/a")).setIsRegular(true))
+                .build(),
+            XenonProto.BatchPathResponse.newBuilder().setIndex(1).setPath(buildPath("/data/missing"))
+                .setErrorMessage("file adaptor: No such path")
+                .setErrorType(XenonProto.BatchPathResponse.ErrorType.NOT_FOUND)
+                .build()
+        );
+        assertEquals(expected, response);
+    }
+
+    private List<XenonProto.BatchPathResponse> batchResponses(Iterator<XenonProto.BatchPathResponse> iterator) {
+        List<XenonProto.BatchPathResponse> responses = new ArrayList<>();
+        iterator.forEachRemaining(responses::add);
+        // results arrive in order of completion
+        responses.sort(Comparator.comparingInt(XenonProto.BatchPathResponse::getIndex));
+        return responses;
+    }
+
+    private XenonProto.GetAttributesRequest buildGetAttributesRequest(String path) {
+        return XenonProto.GetAttributesRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setPath(buildPath(path))
+            .build();
+    }
+
     private PathAttributesImplementation buildPathAttributesOfRegularFile(String filename) {
         PathAttributesImplementation attribs = new PathAttributesImplementation();
         attribs.setPath(new Path(filename));
@@ -424,7 +683,7 @@ public class FileSystemServiceBlockingTest {
     public void readFromFile() throws XenonException {
         String path = "/etc/pasword";
         byte[] content = "test data".getBytes();
-        XenonProto.PathRequest request = buildPathRequest(path);
+        XenonProto.ReadFromFileRequest request = buildReadFromFileRequest(path);
         InputStream stream = new ByteArrayInputStream(content);
         when(filesystem.readFromFile(new Path(path))).thenReturn(stream);
 
@@ -437,11 +696,282 @@ public class FileSystemServiceBlockingTest {
             XenonProto.ReadFromFileResponse.newBuilder()
                 .setBuffer(ByteString.copyFrom(content))
                 .build(),
-            XenonProto.ReadFromFileResponse.getDefaultInstance()
+            XenonProto.ReadFromFileResponse.newBuilder()
+                .setChecksums(checksums(content))
+                .build()
+        );
+        assertEquals(expected, response);
+    }
+
+    @Test
+    public void readFromFile_throttled() throws XenonException {
+        String path = "/etc/pasword";
+        byte[] content = new byte[2000];
+        service.setRateLimits(1000, 0, 0);
+        when(filesystem.readFromFile(new Path(path))).thenReturn(new ByteArrayInputStream(content));
+
+        Iterator<XenonProto.ReadFromFileResponse> iterator = client.readFromFile(buildReadFromFileRequest(path));
+
+        XenonProto.ReadFromFileResponse last = null;
+        while (iterator.hasNext()) {
+            last = iterator.next();
+        }
+        assertTrue("waited for the second 1000 bytes", last.getThrottledMillis() >= 900);
+    }
+
+    @Test
+    public void readFromFile_multipleChunks() throws XenonException {
+        String path = "/etc/pasword";
+        int chunkSize = 1000;
+        byte[] content = new byte[chunkSize * 2 + 5];
+        Arrays.fill(content, (byte) 'x');
+        XenonProto.ReadFromFileRequest request = XenonProto.ReadFromFileRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setPath(buildPath(path))
+            .setChunkSize(chunkSize)
+            .build();
+        when(filesystem.readFromFile(new Path(path))).thenReturn(new ByteArrayInputStream(content));
+
+        Iterator<XenonProto.ReadFromFileResponse> iterator = client.readFromFile(request);
+
+        List<Integer> chunkSizes = new ArrayList<>();
+        ByteString received = ByteString.EMPTY;
+        while (iterator.hasNext()) {
+            ByteString buffer = iterator.next().getBuffer();
+            chunkSizes.add(buffer.size());
+            received = received.concat(buffer);
+        }
+        List<Integer> expectedChunkSizes = Arrays.asList(chunkSize, chunkSize, 5, 0);
+        assertEquals(expectedChunkSizes, chunkSizes);
+        assertEquals(ByteString.copyFrom(content), received);
+    }
+
+    @Test
+    public void readFromFile_slowClient_readsOnlyWhatClientRequested() throws XenonException {
+        String path = "/etc/pasword";
+        CountingInputStream stream = new CountingInputStream(new byte[ChunkSizer.DEFAULT_CHUNK_SIZE * 100]);
+        XenonProto.ReadFromFileRequest request = buildReadFromFileRequest(path);
+        when(filesystem.readFromFile(new Path(path))).thenReturn(stream);
+        List<XenonProto.ReadFromFileResponse> response = new ArrayList<>();
+
+        FileSystemServiceGrpc.newStub(channel).readFromFile(request, new ClientResponseObserver<XenonProto.ReadFromFileRequest, XenonProto.ReadFromFileResponse>() {
+            @Override
+            public void beforeStart(ClientCallStreamObserver<XenonProto.ReadFromFileRequest> requestStream) {
+                // gRPC requests a single response message up front and no more
+                requestStream.disableAutoInboundFlowControl();
+            }
+
+            @Override
+            public void onNext(XenonProto.ReadFromFileResponse value) {
+                response.add(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+
+        assertEquals(1, response.size());
+        assertTrue("Read at most a few chunks ahead", stream.bytesRead <= ChunkSizer.DEFAULT_CHUNK_SIZE * 2);
+    }
+
+    @Test
+    public void readFromFile_range() throws XenonException {
+        String path = "/etc/pasword";
+        XenonProto.ReadFromFileRequest request = XenonProto.ReadFromFileRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setPath(buildPath(path))
+            .setOffset(5)
+            .setLength(3)
+            .build();
+        when(filesystem.readFromFile(new Path(path))).thenReturn(new ByteArrayInputStream("test data".getBytes()));
+
+        Iterator<XenonProto.ReadFromFileResponse> iterator = client.readFromFile(request);
+
+        List<XenonProto.ReadFromFileResponse> response = new ArrayList<>();
+        iterator.forEachRemaining(response::add);
+
+        List<XenonProto.ReadFromFileResponse> expected = Arrays.asList(
+            XenonProto.ReadFromFileResponse.newBuilder()
+                .setBuffer(ByteString.copyFromUtf8("dat"))
+                .build(),
+            XenonProto.ReadFromFileResponse.newBuilder()
+                .setChecksums(checksums("dat".getBytes()))
+                .build()
         );
         assertEquals(expected, response);
     }
 
+    @Test
+    public void readFromFile_offsetBeyondEnd() throws XenonException {
+        thrown.expectMessage("OUT_OF_RANGE: Offset 42 is beyond end of file");
+
+        String path = "/etc/pasword";
+        XenonProto.ReadFromFileRequest request = XenonProto.ReadFromFileRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setPath(buildPath(path))
+            .setOffset(42)
+            .build();
+        when(filesystem.readFromFile(new Path(path))).thenReturn(new ByteArrayInputStream("test data".getBytes()));
+
+        client.readFromFile(request).forEachRemaining(r -> {});
+    }
+
+    @Test
+    public void readFromFile_parallel() throws XenonException {
+        String path = "/etc/pasword";
+        byte[] content = new byte[(int) (ParallelReadFromFileForwarder.MIN_RANGE_SIZE * 5 / 2)];
+        new Random(42).nextBytes(content);
+        XenonProto.ReadFromFileRequest request = XenonProto.ReadFromFileRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setPath(buildPath(path))
+            .setParallelism(4)
+            .build();
+        PathAttributesImplementation attribs = buildPathAttributesOfRegularFile(path);
+        attribs.setSize(content.length);
+        when(filesystem.getAttributes(new Path(path))).thenReturn(attribs);
+        when(filesystem.readFromFile(new Path(path))).thenAnswer(invocation -> new ByteArrayInputStream(content));
+
+        Iterator<XenonProto.ReadFromFileResponse> iterator = client.readFromFile(request);
+
+        byte[] received = new byte[content.length];
+        XenonProto.ReadFromFileResponse last = null;
+        while (iterator.hasNext()) {
+            last = iterator.next();
+            last.getBuffer().copyTo(received, (int) last.getOffset());
+        }
+        XenonProto.ReadFromFileResponse expectedLast = XenonProto.ReadFromFileResponse.newBuilder()
+            .setChecksums(checksums(content))
+            .build();
+        assertEquals(expectedLast, last);
+        assertTrue(Arrays.equals(content, received));
+        // 2.5 MiB should be split into 3 ranges of at least 1 MiB
+        verify(filesystem, times(3)).readFromFile(new Path(path));
+    }
+
+    @Test
+    public void readFromFile_parallelOnAdaptorWhichCanNotSeek_singleStream() throws XenonException {
+        String path = "/etc/pasword";
+        byte[] content = new byte[(int) (ParallelReadFromFileForwarder.MIN_RANGE_SIZE * 5 / 2)];
+        new Random(42).nextBytes(content);
+        XenonProto.ReadFromFileRequest request = XenonProto.ReadFromFileRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setPath(buildPath(path))
+            .setParallelism(4)
+            .build();
+        when(filesystem.getAdaptorName()).thenReturn("webdav");
+        when(filesystem.readFromFile(new Path(path))).thenAnswer(invocation -> new ByteArrayInputStream(content));
+
+        Iterator<XenonProto.ReadFromFileResponse> iterator = client.readFromFile(request);
+
+        // chunks of a single stream arrive in order
+        byte[] received = new byte[content.length];
+        int position = 0;
+        while (iterator.hasNext()) {
+            XenonProto.ReadFromFileResponse response = iterator.next();
+            response.getBuffer().copyTo(received, position);
+            position += response.getBuffer().size();
+        }
+        assertTrue(Arrays.equals(content, received));
+        verify(filesystem, times(1)).readFromFile(new Path(path));
+    }
+
+    @Test
+    public void readFromFile_localFile_readsFileDirectly() throws XenonException, IOException {
+        // mocked filesystem has location of an unix root
+        assumeFalse(isWindows());
+        File file = temporaryFolder.newFile();
+        byte[] content = new byte[ChunkSizer.DEFAULT_CHUNK_SIZE * 3 + 5];
+        new Random(42).nextBytes(content);
+        Files.write(file.toPath(), content);
+        String path = file.getAbsolutePath();
+        XenonProto.ReadFromFileRequest request = XenonProto.ReadFromFileRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setPath(buildPath(path))
+            .setOffset(5)
+            .build();
+
+        Iterator<XenonProto.ReadFromFileResponse> iterator = client.readFromFile(request);
+
+        ByteString received = ByteString.EMPTY;
+        while (iterator.hasNext()) {
+            received = received.concat(iterator.next().getBuffer());
+        }
+        assertEquals(ByteString.copyFrom(content, 5, content.length - 5), received);
+        verify(filesystem, never()).readFromFile(new Path(path));
+    }
+
+    @Test
+    public void readFromFile_sha256() throws XenonException, NoSuchAlgorithmException {
+        String path = "/etc/pasword";
+        byte[] content = "test data".getBytes();
+        XenonProto.ReadFromFileRequest request = XenonProto.ReadFromFileRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setPath(buildPath(path))
+            .setSha256(true)
+            .build();
+        when(filesystem.readFromFile(new Path(path))).thenReturn(new ByteArrayInputStream(content));
+
+        Iterator<XenonProto.ReadFromFileResponse> iterator = client.readFromFile(request);
+
+        XenonProto.ReadFromFileResponse last = null;
+        while (iterator.hasNext()) {
+            last = iterator.next();
+        }
+        XenonProto.Checksums expected = checksums(content).toBuilder()
+            .setSha256(ByteString.copyFrom(MessageDigest.getInstance("SHA-256").digest(content)))
+            .build();
+        assertEquals(expected, last.getChecksums());
+    }
+
+    @Test
+    public void readFromFile_gzip() throws XenonException {
+        String path = "/var/log/job.log";
+        byte[] content = new byte[ChunkSizer.DEFAULT_CHUNK_SIZE * 3];
+        Arrays.fill(content, (byte) 'x');
+        XenonProto.ReadFromFileRequest request = XenonProto.ReadFromFileRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setPath(buildPath(path))
+            .setCompression(XenonProto.Compression.AUTO)
+            .build();
+        when(filesystem.readFromFile(new Path(path))).thenReturn(new ByteArrayInputStream(content));
+
+        Iterator<XenonProto.ReadFromFileResponse> iterator = client.readFromFile(request);
+
+        ByteString received = ByteString.EMPTY;
+        while (iterator.hasNext()) {
+            received = received.concat(iterator.next().getBuffer());
+        }
+        assertEquals(ByteString.copyFrom(content), received);
+    }
+
+    private static XenonProto.Checksums checksums(byte[] content) {
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(content);
+        return XenonProto.Checksums.newBuilder().setCrc32C((int) crc32c.getValue()).build();
+    }
+
+    private static class CountingInputStream extends ByteArrayInputStream {
+        private int bytesRead = 0;
+
+        CountingInputStream(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                bytesRead += read;
+            }
+            return read;
+        }
+    }
+
     @Test
     public void createSymbolicLink() throws XenonException {
         XenonProto.CreateSymbolicLinkRequest request = XenonProto.CreateSymbolicLinkRequest.newBuilder()
@@ -522,6 +1052,73 @@ public class FileSystemServiceBlockingTest {
         assertEquals(expected, response);
     }
 
+    @Test
+    public void copyBatch_waitUntilDone() throws XenonException {
+        XenonProto.CopyBatchRequest request = XenonProto.CopyBatchRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setDestinationFilesystem(createFileSystem())
+            .addItems(buildCopyBatchItem("/data/a", "/backup/a"))
+            .addItems(buildCopyBatchItem("/data/b", "/backup/b"))
+            .addItems(buildCopyBatchItem("/data/c", "/backup/c"))
+            .build();
+        when(filesystem.copy(new Path("/data/a"), filesystem, new Path("/backup/a"), CopyMode.CREATE, false)).thenReturn("COPY-A");
+        when(filesystem.copy(new Path("/data/b"), filesystem, new Path("/backup/b"), CopyMode.CREATE, false)).thenReturn("COPY-B");
+        when(filesystem.copy(new Path("/data/c"), filesystem, new Path("/backup/c"), CopyMode.CREATE, false))
+            .thenThrow(new NoSuchPathException("file", "Source does not exist"));
+        CopyStatus done = buildCopyStatus("DONE", 1024L);
+        when(filesystem.waitUntilDone("COPY-A", 0)).thenReturn(done);
+        when(filesystem.waitUntilDone("COPY-B", 0)).thenReturn(done);
+
+        XenonProto.CopyOperation operation = client.copyBatch(request);
+        XenonProto.CopyStatus status = client.waitUntilDone(XenonProto.WaitUntilDoneRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setCopyOperation(operation)
+            .build());
+
+        XenonProto.CopyStatus expected = XenonProto.CopyStatus.newBuilder()
+            .setCopyOperation(operation)
+            .setBytesCopied(2048L)
+            .setBytesToCopy(2048L)
+            .setDone(true)
+            .setState("FAILED")
+            .setFilesCopied(2)
+            .setFilesFailed(1)
+            .setFilesToCopy(3)
+            .setErrorMessage("1 of 3 copies failed, first error: file adaptor: Source does not exist")
+            .setErrorType(XenonProto.CopyStatus.ErrorType.NOT_FOUND)
+            .build();
+        assertEquals(expected, status);
+    }
+
+    @Test
+    public void copyBatch_forgottenWhenDone() throws XenonException {
+        thrown.expectMessage("NOT_FOUND: Copy batch with id: ");
+
+        XenonProto.CopyBatchRequest request = XenonProto.CopyBatchRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setDestinationFilesystem(createFileSystem())
+            .build();
+        XenonProto.CopyOperation operation = client.copyBatch(request);
+        XenonProto.WaitUntilDoneRequest waitRequest = XenonProto.WaitUntilDoneRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setCopyOperation(operation)
+            .build();
+        XenonProto.CopyOperationRequest statusRequest = XenonProto.CopyOperationRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setCopyOperation(operation)
+            .build();
+
+        assertTrue("empty batch is done", client.waitUntilDone(waitRequest).getDone());
+        client.getStatus(statusRequest);
+    }
+
+    private XenonProto.CopyBatchRequest.Item buildCopyBatchItem(String source, String destination) {
+        return XenonProto.CopyBatchRequest.Item.newBuilder()
+            .setSource(buildPath(source))
+            .setDestination(buildPath(destination))
+            .build();
+    }
+
     @Test
     public void copy_illegalarg() throws XenonException {
         thrown.expectMessage("INVALID_ARGUMENT: java.lang.IllegalArgumentException: Copy mode is invalid");
@@ -579,6 +1176,49 @@ public class FileSystemServiceBlockingTest {
         return status;
     }
 
+    private CopyStatus buildCopyStatus(String state, long bytesCopied) {
+        CopyStatus status = mock(CopyStatus.class);
+        when(status.getState()).thenReturn(state);
+        when(status.isDone()).thenReturn("DONE".equals(state));
+        when(status.isRunning()).thenReturn("RUNNING".equals(state));
+        when(status.bytesCopied()).thenReturn(bytesCopied);
+        when(status.bytesToCopy()).thenReturn(1024L);
+        when(status.getCopyIdentifier()).thenReturn("COPY-1");
+        return status;
+    }
+
+    @Test
+    public void watchCopies() throws XenonException {
+        XenonProto.WatchCopiesRequest request = XenonProto.WatchCopiesRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .addCopyOperations(XenonProto.CopyOperation.newBuilder().setId("COPY-1"))
+            .setInterval(100)
+            .build();
+        CopyStatus running = buildCopyStatus("RUNNING", 512L);
+        CopyStatus done = buildCopyStatus("DONE", 1024L);
+        // unchanged status is not sent again
+        when(filesystem.getStatus("COPY-1")).thenReturn(running, running, done);
+
+        List<String> states = new ArrayList<>();
+        client.watchCopies(request).forEachRemaining(status -> states.add(status.getState()));
+
+        assertEquals(Arrays.asList("RUNNING", "DONE"), states);
+        verify(filesystem, times(3)).getStatus("COPY-1");
+    }
+
+    @Test
+    public void watchCopies_unknownCopy() throws XenonException {
+        thrown.expectMessage("NOT_FOUND");
+
+        XenonProto.WatchCopiesRequest request = XenonProto.WatchCopiesRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .addCopyOperations(XenonProto.CopyOperation.newBuilder().setId("COPY-1"))
+            .build();
+        when(filesystem.getStatus("COPY-1")).thenThrow(new NoSuchPathException("file", "No such copy"));
+
+        client.watchCopies(request).forEachRemaining(status -> { });
+    }
+
     @Test
     public void getStatus() throws XenonException {
         XenonProto.CopyOperationRequest request = XenonProto.CopyOperationRequest.newBuilder()
@@ -695,6 +1335,174 @@ public class FileSystemServiceBlockingTest {
         assertEquals(expected, response);
     }
 
+    @Test
+    public void list_parallel() throws XenonException {
+        XenonProto.ListRequest request = XenonProto.ListRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setDir(buildPath("/data"))
+            .setRecursive(true)
+            .setParallelism(4)
+            .build();
+        when(filesystem.list(new Path("/data"), false)).thenReturn(Arrays.asList(
+            buildPathAttributesOfDirectory("/data/a"),
+            buildPathAttributesOfDirectory("/data/b"),
+            buildPathAttributesOfRegularFile("/data/c.csv")
+        ));
+        when(filesystem.list(new Path("/data/a"), false)).thenReturn(Arrays.asList(
+            buildPathAttributesOfDirectory("/data/a/aa"),
+            buildPathAttributesOfRegularFile("/data/a/a.csv")
+        ));
+        when(filesystem.list(new Path("/data/a/aa"), false)).thenReturn(Collections.singletonList(
+            buildPathAttributesOfRegularFile("/data/a/aa/aa.csv")
+        ));
+        when(filesystem.list(new Path("/data/b"), false)).thenReturn(Collections.emptyList());
+
+        Set<String> paths = new HashSet<>();
+        client.list(request).forEachRemaining(entry -> paths.add(entry.getPath().getPath()));
+
+        Set<String> expected = new HashSet<>(Arrays.asList(
+            "/data/a", "/data/b", "/data/c.csv", "/data/a/aa", "/data/a/a.csv", "/data/a/aa/aa.csv"
+        ));
+        assertEquals(expected, paths);
+        verify(filesystem, never()).list(new Path("/data"), true);
+    }
+
+    @Test
+    public void list_parallel_failedSubdirectory() throws XenonException {
+        thrown.expectMessage("UNAVAILABLE: nl.esciencecenter.xenon.adaptors.NotConnectedException: sftp adaptor: Not connected");
+
+        XenonProto.ListRequest request = XenonProto.ListRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setDir(buildPath("/data"))
+            .setRecursive(true)
+            .setParallelism(4)
+            .build();
+        when(filesystem.list(new Path("/data"), false)).thenReturn(Collections.singletonList(
+            buildPathAttributesOfDirectory("/data/a")
+        ));
+        when(filesystem.list(new Path("/data/a"), false)).thenThrow(new NotConnectedException("sftp", "Not connected"));
+
+        client.list(request).forEachRemaining(entry -> { });
+    }
+
+    @Test
+    public void list_parallel_runtimeExceptionInSubdirectory() throws XenonException {
+        thrown.expectMessage("INTERNAL: java.lang.IllegalStateException: Channel closed");
+
+        XenonProto.ListRequest request = XenonProto.ListRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setDir(buildPath("/data"))
+            .setRecursive(true)
+            .setParallelism(4)
+            .build();
+        when(filesystem.list(new Path("/data"), false)).thenReturn(Collections.singletonList(
+            buildPathAttributesOfDirectory("/data/a")
+        ));
+        when(filesystem.list(new Path("/data/a"), false)).thenThrow(new IllegalStateException("Channel closed"));
+
+        client.list(request).forEachRemaining(entry -> { });
+    }
+
+    private PathAttributesImplementation buildPathAttributesOfDirectory(String filename) {
+        PathAttributesImplementation attribs = new PathAttributesImplementation();
+        attribs.setPath(new Path(filename));
+        attribs.setDirectory(true);
+        return attribs;
+    }
+
+    private List<PathAttributes> buildCsvListing() {
+        List<PathAttributes> listing = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            listing.add(buildPathAttributesOfRegularFile("/data/result" + i + ".csv"));
+            listing.add(buildPathAttributesOfRegularFile("/data/result" + i + ".log"));
+        }
+        return listing;
+    }
+
+    private List<String> listPagedPaths(XenonProto.ListPagedRequest request, List<String> nextPageTokens) {
+        List<String> paths = new ArrayList<>();
+        client.listPaged(request).forEachRemaining(batch -> {
+            batch.getEntriesList().forEach(entry -> paths.add(entry.getPath().getPath()));
+            nextPageTokens.add(batch.getNextPageToken());
+        });
+        return paths;
+    }
+
+    @Test
+    public void listPaged_filterInBatches() throws XenonException {
+        XenonProto.ListPagedRequest request = XenonProto.ListPagedRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setDir(buildPath("/data"))
+            .setFilter(XenonProto.PathFilter.newBuilder().setGlob("*.csv"))
+            .setBatchSize(2)
+            .build();
+        when(filesystem.list(new Path("/data"), false)).thenReturn(buildCsvListing());
+
+        List<String> nextPageTokens = new ArrayList<>();
+        List<String> paths = listPagedPaths(request, nextPageTokens);
+
+        List<String> expected = Arrays.asList("/data/result0.csv", "/data/result1.csv", "/data/result2.csv", "/data/result3.csv", "/data/result4.csv");
+        assertEquals(expected, paths);
+        assertEquals("3 batches without a next page", Arrays.asList("", "", ""), nextPageTokens);
+    }
+
+    @Test
+    public void listPaged_pages() throws XenonException {
+        XenonProto.ListPagedRequest.Builder request = XenonProto.ListPagedRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setDir(buildPath("/data"))
+            .setFilter(XenonProto.PathFilter.newBuilder().setRegex(".*\\.csv"))
+            .setPageSize(3);
+        when(filesystem.list(new Path("/data"), false)).thenAnswer(invocation -> buildCsvListing());
+
+        List<String> firstTokens = new ArrayList<>();
+        List<String> firstPage = listPagedPaths(request.build(), firstTokens);
+        String nextPageToken = firstTokens.get(firstTokens.size() - 1);
+        List<String> secondTokens = new ArrayList<>();
+        List<String> secondPage = listPagedPaths(request.setPageToken(nextPageToken).build(), secondTokens);
+
+        assertEquals(Arrays.asList("/data/result0.csv", "/data/result1.csv", "/data/result2.csv"), firstPage);
+        assertEquals(Arrays.asList("/data/result3.csv", "/data/result4.csv"), secondPage);
+        assertEquals("", secondTokens.get(secondTokens.size() - 1));
+    }
+
+    @Test
+    public void listPaged_sizeAndType() throws XenonException {
+        XenonProto.ListPagedRequest request = XenonProto.ListPagedRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setDir(buildPath("/data"))
+            .setFilter(XenonProto.PathFilter.newBuilder().setType(XenonProto.PathFilter.Type.REGULAR).setMinSize(10).setMaxSize(100))
+            .build();
+        PathAttributesImplementation small = buildPathAttributesOfRegularFile("/data/small");
+        small.setSize(5);
+        PathAttributesImplementation medium = buildPathAttributesOfRegularFile("/data/medium");
+        medium.setSize(50);
+        PathAttributesImplementation large = buildPathAttributesOfRegularFile("/data/large");
+        large.setSize(500);
+        PathAttributesImplementation dir = new PathAttributesImplementation();
+        dir.setPath(new Path("/data/dir"));
+        dir.setDirectory(true);
+        dir.setSize(50);
+        when(filesystem.list(new Path("/data"), false)).thenReturn(Arrays.asList(small, medium, large, dir));
+
+        List<String> paths = listPagedPaths(request, new ArrayList<>());
+
+        assertEquals(Arrays.asList("/data/medium"), paths);
+    }
+
+    @Test
+    public void listPaged_invalidPageToken() throws XenonException {
+        thrown.expectMessage("INVALID_ARGUMENT: Invalid page token: bogus");
+
+        XenonProto.ListPagedRequest request = XenonProto.ListPagedRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setDir(buildPath("/data"))
+            .setPageToken("bogus")
+            .build();
+
+        client.listPaged(request).forEachRemaining(batch -> {});
+    }
+
     @Test
     public void getWorkingDirectory() {
         XenonProto.FileSystem request = createFileSystem();
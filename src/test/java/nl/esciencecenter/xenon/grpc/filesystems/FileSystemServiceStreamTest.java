@@ -2,18 +2,28 @@ package nl.esciencecenter.xenon.grpc.filesystems;
 
 import static nl.esciencecenter.xenon.grpc.MapUtils.empty;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
 
 import com.google.protobuf.ByteString;
 import io.grpc.StatusException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import org.junit.Before;
 import org.junit.Test;
@@ -41,6 +51,12 @@ public class FileSystemServiceStreamTest {
             .build();
     }
 
+    private static XenonProto.Checksums checksums(ByteString content) {
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(content.toByteArray());
+        return XenonProto.Checksums.newBuilder().setCrc32C((int) crc32c.getValue()).build();
+    }
+
     @Before
     public void setUp() throws IOException, StatusException, XenonException {
         service = new FileSystemService();
@@ -54,7 +70,7 @@ public class FileSystemServiceStreamTest {
     @SuppressWarnings("unchecked")
     @Test
     public void writeToFile_withoutSize() throws XenonException, IOException {
-        StreamObserver<XenonProto.Empty> responseObserver = (StreamObserver<XenonProto.Empty>) mock(StreamObserver.class);
+        StreamObserver<XenonProto.WriteToFileResponse> responseObserver = (StreamObserver<XenonProto.WriteToFileResponse>) mock(StreamObserver.class);
         String path = "/somefile";
         OutputStream pipe = mock(OutputStream.class);
         when(filesystem.writeToFile(new Path(path))).thenReturn(pipe);
@@ -72,19 +88,19 @@ public class FileSystemServiceStreamTest {
         requestBroadcaster.onCompleted();
 
         // verify received content
-        verify(pipe).write(content.toByteArray());
-        verify(pipe).close();
+        verify(pipe, timeout(1000)).write(aryEq(content.toByteArray()), eq(0), eq(content.size()));
+        verify(pipe, timeout(1000)).close();
 
         // verify response
-        verify(responseObserver).onNext(empty());
-        verify(responseObserver).onCompleted();
+        verify(responseObserver, timeout(1000)).onNext(XenonProto.WriteToFileResponse.newBuilder().setChecksums(checksums(content)).build());
+        verify(responseObserver, timeout(1000)).onCompleted();
         verify(responseObserver, never()).onError(any());
     }
 
     @SuppressWarnings("unchecked")
     @Test
     public void writeToFile_withSize() throws XenonException, IOException {
-        StreamObserver<XenonProto.Empty> responseObserver = (StreamObserver<XenonProto.Empty>) mock(StreamObserver.class);
+        StreamObserver<XenonProto.WriteToFileResponse> responseObserver = (StreamObserver<XenonProto.WriteToFileResponse>) mock(StreamObserver.class);
         String path = "/somefile";
         OutputStream pipe = mock(OutputStream.class);
         when(filesystem.writeToFile(new Path(path), 12L)).thenReturn(pipe);
@@ -103,21 +119,75 @@ public class FileSystemServiceStreamTest {
         requestBroadcaster.onCompleted();
 
         // verify received content
-        verify(pipe).write(content.toByteArray());
-        verify(pipe).close();
+        verify(pipe, timeout(1000)).write(aryEq(content.toByteArray()), eq(0), eq(content.size()));
+        verify(pipe, timeout(1000)).close();
 
         // verify response
-        verify(responseObserver).onNext(empty());
-        verify(responseObserver).onCompleted();
+        verify(responseObserver, timeout(1000)).onNext(XenonProto.WriteToFileResponse.newBuilder().setChecksums(checksums(content)).build());
+        verify(responseObserver, timeout(1000)).onCompleted();
         verify(responseObserver, never()).onError(any());
 
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void writeToFile_slowFileSystem_doesNotBlockCaller() throws XenonException, IOException, InterruptedException {
+        StreamObserver<XenonProto.WriteToFileResponse> responseObserver = (StreamObserver<XenonProto.WriteToFileResponse>) mock(StreamObserver.class);
+        String path = "/somefile";
+        OutputStream pipe = mock(OutputStream.class);
+        CountDownLatch writable = new CountDownLatch(1);
+        doAnswer(invocation -> writable.await(10, TimeUnit.SECONDS)).when(pipe).write(any(byte[].class), eq(0), eq(12));
+        when(filesystem.writeToFile(new Path(path))).thenReturn(pipe);
+
+        StreamObserver<XenonProto.WriteToFileRequest> requestBroadcaster = service.writeToFile(responseObserver);
+
+        // send request, which returns while file system is still busy writing
+        ByteString content = ByteString.copyFrom("Some content".getBytes());
+        XenonProto.WriteToFileRequest request = XenonProto.WriteToFileRequest.newBuilder()
+                .setFilesystem(createFileSystem())
+                .setPath(buildPath(path))
+                .setBuffer(content)
+                .build();
+        requestBroadcaster.onNext(request);
+        requestBroadcaster.onCompleted();
+        verify(responseObserver, never()).onCompleted();
+        writable.countDown();
+
+        verify(pipe, timeout(1000)).close();
+        verify(responseObserver, timeout(1000)).onCompleted();
+        verify(responseObserver, never()).onError(any());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void writeToFile_requestsChunkWhenWritten() throws XenonException, IOException {
+        ServerCallStreamObserver<XenonProto.WriteToFileResponse> responseObserver = (ServerCallStreamObserver<XenonProto.WriteToFileResponse>) mock(ServerCallStreamObserver.class);
+        String path = "/somefile";
+        OutputStream pipe = mock(OutputStream.class);
+        when(filesystem.writeToFile(new Path(path))).thenReturn(pipe);
+
+        StreamObserver<XenonProto.WriteToFileRequest> requestBroadcaster = service.writeToFile(responseObserver);
+
+        verify(responseObserver).disableAutoInboundFlowControl();
+        verify(responseObserver).request(Broadcaster.QUEUE_CAPACITY);
+
+        // send request
+        ByteString content = ByteString.copyFrom("Some content".getBytes());
+        XenonProto.WriteToFileRequest request = XenonProto.WriteToFileRequest.newBuilder()
+                .setFilesystem(createFileSystem())
+                .setPath(buildPath(path))
+                .setBuffer(content)
+                .build();
+        requestBroadcaster.onNext(request);
+
+        verify(responseObserver, timeout(1000)).request(1);
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void writeToFile_badFsID() throws XenonException {
         ArgumentCaptor<StatusException> captor = ArgumentCaptor.forClass(StatusException.class);
-        StreamObserver<XenonProto.Empty> responseObserver = (StreamObserver<XenonProto.Empty>) mock(StreamObserver.class);
+        StreamObserver<XenonProto.WriteToFileResponse> responseObserver = (StreamObserver<XenonProto.WriteToFileResponse>) mock(StreamObserver.class);
         String path = "/somefile";
         OutputStream pipe = mock(OutputStream.class);
         when(filesystem.writeToFile(new Path(path))).thenReturn(pipe);
@@ -135,7 +205,7 @@ public class FileSystemServiceStreamTest {
         requestBroadcaster.onNext(request);
         requestBroadcaster.onCompleted();
 
-        verify(responseObserver).onError(captor.capture());
+        verify(responseObserver, timeout(1000)).onError(captor.capture());
         StatusException actual = captor.getValue();
         assertThat(actual.getMessage(), containsString(badFSID));
     }
@@ -143,7 +213,7 @@ public class FileSystemServiceStreamTest {
     @SuppressWarnings("unchecked")
     @Test
     public void appendToFile() throws XenonException, IOException {
-        StreamObserver<XenonProto.Empty> responseObserver = (StreamObserver<XenonProto.Empty>) mock(StreamObserver.class);
+        StreamObserver<XenonProto.AppendToFileResponse> responseObserver = (StreamObserver<XenonProto.AppendToFileResponse>) mock(StreamObserver.class);
         String path = "/somefile";
         OutputStream pipe = mock(OutputStream.class);
         when(filesystem.appendToFile(new Path(path))).thenReturn(pipe);
@@ -161,12 +231,12 @@ public class FileSystemServiceStreamTest {
         requestBroadcaster.onCompleted();
 
         // verify received content
-        verify(pipe).write(content.toByteArray());
-        verify(pipe).close();
+        verify(pipe, timeout(1000)).write(aryEq(content.toByteArray()), eq(0), eq(content.size()));
+        verify(pipe, timeout(1000)).close();
 
         // verify response
-        verify(responseObserver).onNext(empty());
-        verify(responseObserver).onCompleted();
+        verify(responseObserver, timeout(1000)).onNext(XenonProto.AppendToFileResponse.newBuilder().setChecksums(checksums(content)).build());
+        verify(responseObserver, timeout(1000)).onCompleted();
         verify(responseObserver, never()).onError(any());
     }
 
@@ -174,7 +244,7 @@ public class FileSystemServiceStreamTest {
     @Test
     public void appendToFile_badFsID() throws XenonException {
         ArgumentCaptor<StatusException> captor = ArgumentCaptor.forClass(StatusException.class);
-        StreamObserver<XenonProto.Empty> responseObserver = (StreamObserver<XenonProto.Empty>) mock(StreamObserver.class);
+        StreamObserver<XenonProto.AppendToFileResponse> responseObserver = (StreamObserver<XenonProto.AppendToFileResponse>) mock(StreamObserver.class);
         String path = "/somefile";
         OutputStream pipe = mock(OutputStream.class);
         when(filesystem.appendToFile(new Path(path))).thenReturn(pipe);
@@ -192,8 +262,98 @@ public class FileSystemServiceStreamTest {
         requestBroadcaster.onNext(request);
         requestBroadcaster.onCompleted();
 
-        verify(responseObserver).onError(captor.capture());
+        verify(responseObserver, timeout(1000)).onError(captor.capture());
         StatusException actual = captor.getValue();
         assertThat(actual.getMessage(), containsString(badFSID));
     }
+
+    @SuppressWarnings("unchecked")
+    private XenonProto.MultipartUpload createMultipartUpload(String path) {
+        StreamObserver<XenonProto.MultipartUpload> createObserver = (StreamObserver<XenonProto.MultipartUpload>) mock(StreamObserver.class);
+        ArgumentCaptor<XenonProto.MultipartUpload> captor = ArgumentCaptor.forClass(XenonProto.MultipartUpload.class);
+        service.createMultipartUpload(XenonProto.CreateMultipartUploadRequest.newBuilder()
+            .setFilesystem(createFileSystem())
+            .setPath(buildPath(path))
+            .build(), createObserver);
+        verify(createObserver).onNext(captor.capture());
+        return captor.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void uploadPart(XenonProto.MultipartUpload upload, int partNumber, String content) {
+        StreamObserver<XenonProto.Empty> responseObserver = (StreamObserver<XenonProto.Empty>) mock(StreamObserver.class);
+        StreamObserver<XenonProto.UploadPartRequest> requestBroadcaster = service.uploadPart(responseObserver);
+        requestBroadcaster.onNext(XenonProto.UploadPartRequest.newBuilder()
+            .setUpload(upload)
+            .setPartNumber(partNumber)
+            .setBuffer(ByteString.copyFromUtf8(content))
+            .build());
+        requestBroadcaster.onCompleted();
+        verify(responseObserver, timeout(1000)).onCompleted();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void multipartUpload_partsOutOfOrder() throws XenonException {
+        String path = "/somefile";
+        ByteArrayOutputStream pipe = new ByteArrayOutputStream();
+        when(filesystem.writeToFile(new Path(path), 12L)).thenReturn(pipe);
+        XenonProto.MultipartUpload upload = createMultipartUpload(path);
+
+        uploadPart(upload, 2, "content");
+        uploadPart(upload, 1, "Some ");
+        StreamObserver<XenonProto.Empty> responseObserver = (StreamObserver<XenonProto.Empty>) mock(StreamObserver.class);
+        service.completeMultipartUpload(upload, responseObserver);
+
+        verify(responseObserver).onNext(empty());
+        verify(responseObserver).onCompleted();
+        assertEquals("Some content", pipe.toString());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void multipartUpload_completeFails_canRetry() throws XenonException {
+        String path = "/somefile";
+        ByteArrayOutputStream pipe = new ByteArrayOutputStream();
+        when(filesystem.writeToFile(new Path(path), 12L))
+            .thenThrow(new XenonException("file", "Connection lost"))
+            .thenReturn(pipe);
+        XenonProto.MultipartUpload upload = createMultipartUpload(path);
+        uploadPart(upload, 1, "Some content");
+
+        StreamObserver<XenonProto.Empty> failedObserver = (StreamObserver<XenonProto.Empty>) mock(StreamObserver.class);
+        service.completeMultipartUpload(upload, failedObserver);
+        verify(failedObserver).onError(any(StatusException.class));
+
+        StreamObserver<XenonProto.Empty> responseObserver = (StreamObserver<XenonProto.Empty>) mock(StreamObserver.class);
+        service.completeMultipartUpload(upload, responseObserver);
+        verify(responseObserver).onCompleted();
+        assertEquals("Some content", pipe.toString());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void multipartUpload_abort() throws XenonException {
+        String path = "/somefile";
+        XenonProto.MultipartUpload upload = createMultipartUpload(path);
+        uploadPart(upload, 1, "Some content");
+
+        StreamObserver<XenonProto.Empty> responseObserver = (StreamObserver<XenonProto.Empty>) mock(StreamObserver.class);
+        service.abortMultipartUpload(upload, responseObserver);
+
+        verify(responseObserver).onCompleted();
+        verify(filesystem, never()).writeToFile(any(Path.class), any(Long.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void multipartUpload_completeUnknownUpload() {
+        ArgumentCaptor<StatusException> captor = ArgumentCaptor.forClass(StatusException.class);
+        StreamObserver<XenonProto.Empty> responseObserver = (StreamObserver<XenonProto.Empty>) mock(StreamObserver.class);
+
+        service.completeMultipartUpload(XenonProto.MultipartUpload.newBuilder().setId("bad upload id").build(), responseObserver);
+
+        verify(responseObserver).onError(captor.capture());
+        assertThat(captor.getValue().getMessage(), containsString("bad upload id"));
+    }
 }
@@ -0,0 +1,52 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import com.google.protobuf.ByteString;
+import io.grpc.StatusException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalFileChunkReaderTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private java.nio.file.Path createFile(String content) throws IOException {
+        java.nio.file.Path file = temporaryFolder.newFile().toPath();
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void read_afterSkip_readsChunksUntilEnd() throws IOException, StatusException {
+        java.nio.file.Path file = createFile("Some content");
+
+        try (LocalFileChunkReader reader = new LocalFileChunkReader(FileChannel.open(file, StandardOpenOption.READ))) {
+            reader.skip(5);
+
+            assertEquals(ByteString.copyFromUtf8("cont"), reader.read(4));
+            assertEquals(ByteString.copyFromUtf8("ent"), reader.read(4));
+            assertEquals(ByteString.EMPTY, reader.read(4));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void read_truncatedFile_throws() throws IOException {
+        java.nio.file.Path file = createFile("Some content");
+
+        try (LocalFileChunkReader reader = new LocalFileChunkReader(FileChannel.open(file, StandardOpenOption.READ))) {
+            try (FileChannel writer = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                writer.truncate(4);
+            }
+
+            reader.read(12);
+        }
+    }
+}
@@ -7,6 +7,11 @@ import static nl.esciencecenter.xenon.grpc.filesystems.MapUtils.writeFileAttribu
 import static nl.esciencecenter.xenon.grpc.filesystems.MapUtils.writeFileSystems;
 import static nl.esciencecenter.xenon.grpc.filesystems.MapUtils.writePermissions;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -14,18 +19,22 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import com.google.protobuf.FieldMask;
 import io.grpc.StatusException;
 import org.junit.Test;
 
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.NotConnectedException;
 import nl.esciencecenter.xenon.adaptors.filesystems.PathAttributesImplementation;
+import nl.esciencecenter.xenon.filesystems.AttributeNotSupportedException;
 import nl.esciencecenter.xenon.filesystems.CopyCancelledException;
 import nl.esciencecenter.xenon.filesystems.CopyMode;
 import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.FileSystemAdaptorDescription;
 import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
 import nl.esciencecenter.xenon.filesystems.Path;
 import nl.esciencecenter.xenon.filesystems.PathAlreadyExistsException;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
 import nl.esciencecenter.xenon.filesystems.PosixFilePermission;
 import nl.esciencecenter.xenon.grpc.XenonProto;
 
@@ -103,6 +112,11 @@ public class MapUtilsTest {
         assertEquals(CopyMode.IGNORE, result);
     }
 
+    @Test(expected = StatusException.class)
+    public void test_mapCopyMode_sync() throws StatusException {
+        mapCopyMode(XenonProto.CopyRequest.CopyMode.SYNC);
+    }
+
     @Test(expected = StatusException.class)
     public void test_mapCopyMode_unrecognized_invalid() throws StatusException {
         mapCopyMode(XenonProto.CopyRequest.CopyMode.UNRECOGNIZED);
@@ -199,6 +213,73 @@ public class MapUtilsTest {
         assertEquals(expected, response);
     }
 
+    @Test
+    public void test_writeFileAttributes_masked() throws StatusException {
+        PathAttributesImplementation attribs = new PathAttributesImplementation();
+        attribs.setPath(new Path("/somefile"));
+        attribs.setCreationTime(1L);
+        attribs.setRegular(true);
+        attribs.setSize(4L);
+        attribs.setOwner("someuser");
+
+        AttributeMask mask = AttributeMask.of(FieldMask.newBuilder().addPaths("is_regular").addPaths("size").build());
+        XenonProto.PathAttributes response = writeFileAttributes(attribs, mask, new AttributeSupport());
+
+        XenonProto.PathAttributes expected = XenonProto.PathAttributes.newBuilder()
+                .setPath(XenonProto.Path.newBuilder()
+                        .setPath("/somefile")
+                )
+                .setIsRegular(true)
+                .setSize(4L)
+                .build();
+        assertEquals(expected, response);
+    }
+
+    @Test
+    public void test_writeFileAttributes_notSupported_skippedNextTime() throws XenonException {
+        PathAttributes attribs = mock(PathAttributes.class);
+        when(attribs.getPath()).thenReturn(new Path("/somefile"));
+        when(attribs.getPermissions()).thenThrow(new AttributeNotSupportedException("s3", "Permissions not supported"));
+        when(attribs.getOwner()).thenThrow(new AttributeNotSupportedException("s3", "Owner not supported"));
+        when(attribs.getGroup()).thenThrow(new AttributeNotSupportedException("s3", "Group not supported"));
+        AttributeSupport support = new AttributeSupport();
+
+        writeFileAttributes(attribs, AttributeMask.ALL, support);
+        XenonProto.PathAttributes response = writeFileAttributes(attribs, AttributeMask.ALL, support);
+
+        assertEquals("", response.getOwner());
+        verify(attribs, times(1)).getPermissions();
+        verify(attribs, times(1)).getOwner();
+        verify(attribs, times(1)).getGroup();
+    }
+
+    @Test
+    public void test_writeFileAttributes_notSupported_otherRequestAsksAgain() throws XenonException {
+        PathAttributes attribs = mock(PathAttributes.class);
+        when(attribs.getPath()).thenReturn(new Path("/somefile"));
+        when(attribs.getOwner()).thenThrow(new AttributeNotSupportedException("file", "Owner not supported"));
+        AttributeSupport support = new AttributeSupport();
+
+        writeFileAttributes(attribs, AttributeMask.ALL, support.forRequest());
+        writeFileAttributes(attribs, AttributeMask.ALL, support.forRequest());
+
+        verify(attribs, times(2)).getOwner();
+    }
+
+    @Test
+    public void test_writeFileAttributes_noPosixAdaptor_skipped() throws XenonException {
+        PathAttributes attribs = mock(PathAttributes.class);
+        when(attribs.getPath()).thenReturn(new Path("/somefile"));
+        FileSystemAdaptorDescription description = mock(FileSystemAdaptorDescription.class);
+        when(description.supportsReadingPosixPermissions()).thenReturn(false);
+
+        writeFileAttributes(attribs, AttributeMask.ALL, new AttributeSupport(description));
+
+        verify(attribs, never()).getPermissions();
+        verify(attribs, never()).getOwner();
+        verify(attribs, never()).getGroup();
+    }
+
     @Test
     public void test_writeFileAttributes_complete() {
 
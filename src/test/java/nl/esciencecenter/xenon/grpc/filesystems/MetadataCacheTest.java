@@ -0,0 +1,130 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.adaptors.filesystems.PathAttributesImplementation;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+public class MetadataCacheTest {
+    private final AtomicLong clock = new AtomicLong();
+    private MetadataCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new MetadataCache(4, 1000, clock::get);
+    }
+
+    private PathAttributes attributes(String path) {
+        PathAttributesImplementation attributes = new PathAttributesImplementation();
+        attributes.setPath(new Path(path));
+        return attributes;
+    }
+
+    @Test
+    public void getAttributes_cached() {
+        PathAttributes attributes = attributes("/data/a");
+        cache.putAttributes(new Path("/data/a"), attributes, cache.generation());
+
+        assertSame(attributes, cache.getAttributes(new Path("/data/a")));
+        assertEquals(true, cache.exists(new Path("/data/a")));
+    }
+
+    @Test
+    public void getAttributes_expired() {
+        cache.putAttributes(new Path("/data/a"), attributes("/data/a"), cache.generation());
+
+        clock.addAndGet(1_000_000_000L);
+
+        assertNull(cache.getAttributes(new Path("/data/a")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void exists_missing() {
+        cache.putExists(new Path("/data/a"), false, cache.generation());
+
+        assertEquals(false, cache.exists(new Path("/data/a")));
+        assertNull(cache.getAttributes(new Path("/data/a")));
+    }
+
+    @Test
+    public void putAttributes_full_evictsLeastRecentlyUsed() {
+        for (int i = 0; i < 4; i++) {
+            cache.putAttributes(new Path("/data/" + i), attributes("/data/" + i), cache.generation());
+        }
+        cache.getAttributes(new Path("/data/0"));
+
+        cache.putAttributes(new Path("/data/4"), attributes("/data/4"), cache.generation());
+
+        assertEquals(4, cache.size());
+        assertNull(cache.getAttributes(new Path("/data/1")));
+    }
+
+    @Test
+    public void putListing_countsListedPaths() {
+        List<PathAttributes> listing = Arrays.asList(attributes("/data/a"), attributes("/data/b"));
+
+        cache.putListing(new Path("/data"), listing, cache.generation());
+
+        assertSame(listing, cache.list(new Path("/data")));
+        assertEquals(true, cache.exists(new Path("/data/a")));
+        cache.putAttributes(new Path("/other"), attributes("/other"), cache.generation());
+        assertNull("listing and its entries weigh 4, so least recently used entry is evicted", cache.getAttributes(new Path("/data/b")));
+        assertSame(listing, cache.list(new Path("/data")));
+    }
+
+    @Test
+    public void putListing_tooLarge_notCached() {
+        cache.putListing(new Path("/data"), Arrays.asList(attributes("/data/a"), attributes("/data/b"), attributes("/data/c")), cache.generation());
+
+        assertNull(cache.list(new Path("/data")));
+    }
+
+    @Test
+    public void invalidate_dropsPathDescendantsAndParent() {
+        cache = new MetadataCache(100, 1000, clock::get);
+        cache.putListing(new Path("/data"), Arrays.asList(attributes("/data/a"), attributes("/data/b")), cache.generation());
+        cache.putAttributes(new Path("/data"), attributes("/data"), cache.generation());
+        cache.putAttributes(new Path("/data/a/file"), attributes("/data/a/file"), cache.generation());
+
+        cache.invalidate(new Path("/data/a"));
+
+        assertNull(cache.list(new Path("/data")));
+        assertNull(cache.getAttributes(new Path("/data")));
+        assertNull(cache.getAttributes(new Path("/data/a")));
+        assertNull(cache.getAttributes(new Path("/data/a/file")));
+        assertEquals(true, cache.exists(new Path("/data/b")));
+    }
+
+    @Test
+    public void invalidate_deepDescendantOfUncachedDirectory_dropped() {
+        cache.putAttributes(new Path("/data/a/b/c/file"), attributes("/data/a/b/c/file"), cache.generation());
+        cache.putAttributes(new Path("/other/file"), attributes("/other/file"), cache.generation());
+
+        cache.invalidate(new Path("/data"));
+
+        assertNull(cache.getAttributes(new Path("/data/a/b/c/file")));
+        assertEquals(true, cache.exists(new Path("/other/file")));
+    }
+
+    @Test
+    public void putAttributes_lookupStartedBeforeInvalidate_notCached() {
+        long generation = cache.generation();
+        // the file changes while the lookup is running
+        cache.invalidate(new Path("/data/a"));
+
+        cache.putAttributes(new Path("/data/a"), attributes("/data/a"), generation);
+
+        assertNull(cache.getAttributes(new Path("/data/a")));
+    }
+}
@@ -0,0 +1,85 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import io.grpc.Status;
+import io.grpc.StatusException;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+public class MultipartUploadTest {
+    private final SpoolLimit spoolLimit = new SpoolLimit(16);
+    private final FileSystem filesystem = mock(FileSystem.class);
+
+    @Test
+    public void reserve_overLimit_resourceExhausted() throws IOException, StatusException {
+        MultipartUpload upload = new MultipartUpload(filesystem, new Path("/somefile"), spoolLimit);
+        try (MultipartUpload.Part part = upload.openPart(1)) {
+            part.reserve(14);
+
+            try {
+                part.reserve(3);
+                fail("StatusException expected");
+            } catch (StatusException e) {
+                assertEquals(Status.Code.RESOURCE_EXHAUSTED, e.getStatus().getCode());
+            }
+        }
+        upload.abort();
+    }
+
+    @Test
+    public void openPart_replacesPart_releasesSpace() throws IOException, StatusException {
+        MultipartUpload upload = new MultipartUpload(filesystem, new Path("/somefile"), spoolLimit);
+        writePart(upload, 1, "Some ");
+
+        writePart(upload, 1, "content");
+
+        assertEquals(7, spoolLimit.getUsed());
+        upload.abort();
+    }
+
+    @Test
+    public void abort_releasesSpace() throws IOException, StatusException {
+        MultipartUpload upload = new MultipartUpload(filesystem, new Path("/somefile"), spoolLimit);
+        writePart(upload, 1, "Some ");
+        writePart(upload, 2, "content");
+
+        upload.abort();
+
+        assertEquals(0, spoolLimit.getUsed());
+    }
+
+    @Test
+    public void discardPart_removesPartAndReleasesSpace() throws IOException, StatusException, XenonException {
+        MultipartUpload upload = new MultipartUpload(filesystem, new Path("/somefile"), spoolLimit);
+        writePart(upload, 1, "Some ");
+        MultipartUpload.Part truncated = upload.openPart(2);
+        truncated.reserve(7);
+        truncated.write("con".getBytes(), 0, 3);
+
+        truncated.discard();
+
+        assertEquals(5, spoolLimit.getUsed());
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        when(filesystem.writeToFile(new Path("/somefile"), 5)).thenReturn(written);
+        upload.complete();
+        assertEquals("Some ", written.toString());
+    }
+
+    private static void writePart(MultipartUpload upload, int partNumber, String content) throws IOException, StatusException {
+        byte[] bytes = content.getBytes();
+        try (MultipartUpload.Part out = upload.openPart(partNumber)) {
+            out.reserve(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.google.protobuf.ByteString;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+public class ResponseCompressionTest {
+    private static ByteString randomBytes() {
+        byte[] content = new byte[10000];
+        new Random(42).nextBytes(content);
+        return ByteString.copyFrom(content);
+    }
+
+    private static ByteString repetitiveBytes() {
+        byte[] content = new byte[10000];
+        Arrays.fill(content, (byte) 'x');
+        return ByteString.copyFrom(content);
+    }
+
+    @Test
+    public void isCompressible_compressedExtension() {
+        assertFalse(ResponseCompression.isCompressible(new Path("/data/results.tar.gz"), repetitiveBytes()));
+    }
+
+    @Test
+    public void isCompressible_textExtension() {
+        assertTrue(ResponseCompression.isCompressible(new Path("/data/job.LOG"), randomBytes()));
+    }
+
+    @Test
+    public void isCompressible_unknownExtension_compressibleSample() {
+        assertTrue(ResponseCompression.isCompressible(new Path("/data/output.dat"), repetitiveBytes()));
+    }
+
+    @Test
+    public void isCompressible_unknownExtension_incompressibleSample() {
+        assertFalse(ResponseCompression.isCompressible(new Path("/data/output"), randomBytes()));
+    }
+
+    @Test
+    public void isCompressible_emptySample() {
+        assertFalse(ResponseCompression.isCompressible(new Path("/data/output"), ByteString.EMPTY));
+    }
+
+    @Test
+    public void choose_gzip() {
+        ServerCallStreamObserver<?> observer = mock(ServerCallStreamObserver.class);
+        ResponseCompression compression = new ResponseCompression(XenonProto.Compression.GZIP, new Path("/data/results.tar.gz"));
+
+        compression.choose(observer, randomBytes());
+        compression.choose(observer, randomBytes());
+
+        verify(observer, times(1)).setCompression("gzip");
+    }
+
+    @Test
+    public void choose_uncompressed() {
+        ServerCallStreamObserver<?> observer = mock(ServerCallStreamObserver.class);
+        ResponseCompression compression = new ResponseCompression(XenonProto.Compression.UNCOMPRESSED, new Path("/data/job.log"));
+
+        compression.choose(observer, repetitiveBytes());
+
+        verify(observer, never()).setCompression(anyString());
+    }
+}
@@ -0,0 +1,173 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.filesystems.PathAttributesImplementation;
+import nl.esciencecenter.xenon.filesystems.CopyMode;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+public class SyncPlannerTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private FileSystem source;
+    private FileSystem target;
+
+    @Before
+    public void setUp() throws XenonException {
+        source = mock(FileSystem.class);
+        target = mock(FileSystem.class);
+        when(source.getAttributes(new Path("/data"))).thenReturn(directory("/data"));
+        when(target.exists(new Path("/backup"))).thenReturn(true);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private PathAttributesImplementation file(String path, long size, long lastModified) {
+        PathAttributesImplementation attributes = new PathAttributesImplementation();
+        attributes.setPath(new Path(path));
+        attributes.setRegular(true);
+        attributes.setSize(size);
+        attributes.setLastModifiedTime(lastModified);
+        return attributes;
+    }
+
+    private PathAttributesImplementation directory(String path) {
+        PathAttributesImplementation attributes = new PathAttributesImplementation();
+        attributes.setPath(new Path(path));
+        attributes.setDirectory(true);
+        return attributes;
+    }
+
+    private Set<String> plannedSources(boolean compareChecksums) throws XenonException, InterruptedException {
+        SyncPlanner planner = new SyncPlanner(source, new Path("/data"), target, new Path("/backup"), false, compareChecksums, executor);
+        List<CopyBatch.Item> items = planner.plan();
+        for (CopyBatch.Item item : items) {
+            assertEquals(new Path("/backup").resolve(item.getSource().getFileName()), item.getDestination());
+        }
+        return items.stream().map(item -> item.getSource().toString()).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void plan_modificationTimes() throws XenonException, InterruptedException {
+        when(source.list(new Path("/data"), false)).thenReturn(Arrays.asList(
+            file("/data/same", 10, 1000),
+            file("/data/resized", 10, 1000),
+            file("/data/modified", 10, 3000),
+            file("/data/new", 10, 1000)
+        ));
+        when(target.list(new Path("/backup"), false)).thenReturn(Arrays.asList(
+            file("/backup/same", 10, 2000),
+            file("/backup/resized", 20, 2000),
+            file("/backup/modified", 10, 2000)
+        ));
+
+        Set<String> result = plannedSources(false);
+
+        assertEquals(set("/data/resized", "/data/modified", "/data/new"), result);
+    }
+
+    @Test
+    public void plan_checksums() throws XenonException, InterruptedException {
+        when(source.list(new Path("/data"), false)).thenReturn(Arrays.asList(
+            file("/data/same", 5, 3000),
+            file("/data/changed", 5, 1000)
+        ));
+        when(target.list(new Path("/backup"), false)).thenReturn(Arrays.asList(
+            file("/backup/same", 5, 2000),
+            file("/backup/changed", 5, 2000)
+        ));
+        when(source.readFromFile(new Path("/data/same"))).thenReturn(stream("hello"));
+        when(target.readFromFile(new Path("/backup/same"))).thenReturn(stream("hello"));
+        when(source.readFromFile(new Path("/data/changed"))).thenReturn(stream("hello"));
+        when(target.readFromFile(new Path("/backup/changed"))).thenReturn(stream("world"));
+
+        Set<String> result = plannedSources(true);
+
+        assertEquals(set("/data/changed"), result);
+    }
+
+    @Test
+    public void plan_missingTarget_createsDirectories() throws XenonException, InterruptedException {
+        when(target.exists(new Path("/backup"))).thenReturn(false);
+        when(source.list(new Path("/data"), false)).thenReturn(Arrays.asList(
+            file("/data/a", 10, 1000),
+            directory("/data/sub")
+        ));
+
+        Set<String> result = plannedSources(false);
+
+        assertEquals(set("/data/a"), result);
+        verify(target).createDirectories(new Path("/backup"));
+        verify(target).createDirectories(new Path("/backup/sub"));
+    }
+
+    @Test
+    public void plan_relativeSource_resolvedAgainstWorkingDirectory() throws XenonException, InterruptedException {
+        when(source.getWorkingDirectory()).thenReturn(new Path("/"));
+        when(source.list(new Path("/data"), false)).thenReturn(Arrays.asList(
+            file("/data/new", 10, 1000)
+        ));
+        SyncPlanner planner = new SyncPlanner(source, new Path("data"), target, new Path("/backup"), false, false, executor);
+
+        List<CopyBatch.Item> items = planner.plan();
+
+        assertEquals(1, items.size());
+        assertEquals(new Path("/data/new"), items.get(0).getSource());
+        assertEquals(new Path("/backup/new"), items.get(0).getDestination());
+    }
+
+    @Test
+    public void sync_upToDate_waitUntilDoneReturns() throws Exception {
+        when(source.list(new Path("/data"), false)).thenReturn(Arrays.asList(
+            file("/data/same", 10, 1000)
+        ));
+        when(target.list(new Path("/backup"), false)).thenReturn(Arrays.asList(
+            file("/backup/same", 10, 2000)
+        ));
+        SyncPlanner planner = new SyncPlanner(source, new Path("/data"), target, new Path("/backup"), false, false, executor);
+        CopyLimits limits = new CopyLimits(CopyLimits.DEFAULT_MAX_COPIES, CopyLimits.DEFAULT_MAX_COPIES_PER_FILESYSTEM);
+        // planning finishes after the caller started waiting
+        CopyBatch batch = new CopyBatch(source, target, () -> {
+            Thread.sleep(50);
+            return planner.plan();
+        }, CopyMode.CREATE, false, limits, executor);
+
+        batch.start();
+        Future<XenonProto.CopyStatus> waiting = executor.submit(() -> batch.waitUntilDone(0));
+        XenonProto.CopyStatus status = waiting.get(5, TimeUnit.SECONDS);
+
+        assertEquals("DONE", status.getState());
+        assertEquals(0, status.getFilesToCopy());
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Set<String> set(String... values) {
+        return Arrays.stream(values).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,41 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+
+public class ThrottlesTest {
+    private final FileSystem filesystem = mock(FileSystem.class);
+
+    @Test
+    public void open_sameClient_bucketDroppedWithLastTransfer() {
+        Throttles throttles = new Throttles(0, 0, 1000, fs -> { });
+        Throttle first = throttles.open("client1", filesystem);
+        Throttle second = throttles.open("client1", filesystem);
+
+        first.close();
+        first.close();
+        assertEquals("still used by second transfer", 1, throttles.getClientCount());
+        second.close();
+
+        assertEquals(0, throttles.getClientCount());
+    }
+
+    @Test
+    public void acquire_largeChunk_reservedInSlices() throws InterruptedException {
+        TokenBucket bucket = mock(TokenBucket.class);
+        Throttle throttle = new Throttle(Collections.singletonList(bucket), () -> { });
+
+        throttle.acquire(3L * Throttle.MAX_RESERVATION + 1);
+
+        verify(bucket, times(3)).reserve(Throttle.MAX_RESERVATION);
+        verify(bucket).reserve(1);
+    }
+}
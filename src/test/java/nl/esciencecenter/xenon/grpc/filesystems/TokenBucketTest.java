@@ -0,0 +1,52 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TokenBucketTest {
+    private static final long SECOND = 1_000_000_000L;
+    private long now;
+    private TokenBucket bucket;
+
+    @Before
+    public void setUp() {
+        now = 0;
+        bucket = new TokenBucket(1000, () -> now);
+    }
+
+    @Test
+    public void reserve_withinBurst_noWait() {
+        assertEquals(0, bucket.reserve(400));
+        assertEquals(0, bucket.reserve(600));
+    }
+
+    @Test
+    public void reserve_beyondBurst_waitsForDebt() {
+        assertEquals(SECOND, bucket.reserve(2000));
+    }
+
+    @Test
+    public void reserve_afterDebt_waitsForEarlierDebtFirst() {
+        bucket.reserve(2000);
+
+        assertEquals("second stream waits for debt of first", 2 * SECOND, bucket.reserve(1000));
+    }
+
+    @Test
+    public void reserve_refillsOverTime() {
+        bucket.reserve(1000);
+        now += SECOND / 2;
+
+        assertEquals(0, bucket.reserve(500));
+        assertEquals(SECOND / 2, bucket.reserve(500));
+    }
+
+    @Test
+    public void reserve_idle_refillsUpToBurst() {
+        now += 10 * SECOND;
+
+        assertEquals(SECOND, bucket.reserve(2000));
+    }
+}
@@ -0,0 +1,144 @@
+package nl.esciencecenter.xenon.grpc.filesystems;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.protobuf.ByteString;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.grpc.XenonProto;
+
+/*
+    Measures the bytes allocated on the heap while a writeToFile request stream is forwarded to a Xenon output stream.
+
+    The broadcaster writes on a single thread of its own, so only the allocations of that thread are counted,
+    not those of other tests, the JIT compiler or the garbage collector running at the same time.
+ */
+public class WriteToFileAllocationTest {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNKS = 256;
+
+    private com.sun.management.ThreadMXBean threadBean;
+    private Map<String, FileSystem> fileSystems;
+    private List<XenonProto.WriteToFileRequest> requests;
+    private ExecutorService writer;
+    private volatile long writerId;
+
+    @Before
+    public void setUp() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue("JVM can measure allocated bytes", bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue("JVM can measure allocated bytes", threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "writer");
+            writerId = thread.getId();
+            return thread;
+        });
+        // start the thread, so its id is known
+        writer.submit(() -> { }).get();
+
+        FileSystem filesystem = mock(FileSystem.class);
+        when(filesystem.writeToFile(new Path("/somefile"))).thenAnswer(invocation -> new DiscardingOutputStream());
+        String filesystemId = "sftp://someone@localhost";
+        fileSystems = Collections.singletonMap(filesystemId, filesystem);
+
+        byte[] chunk = new byte[CHUNK_SIZE];
+        Random random = new Random(42);
+        requests = new ArrayList<>();
+        for (int i = 0; i < CHUNKS; i++) {
+            random.nextBytes(chunk);
+            requests.add(XenonProto.WriteToFileRequest.newBuilder()
+                .setFilesystem(XenonProto.FileSystem.newBuilder().setId(filesystemId))
+                .setPath(XenonProto.Path.newBuilder().setPath("/somefile"))
+                .setBuffer(ByteString.copyFrom(chunk))
+                .build());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    public void writeToFile_allocatesFarLessThanContent() throws Exception {
+        // warm up, so class loading and JIT compilation are not measured
+        upload();
+        copyingUpload();
+
+        long allocated = allocatedBy(this::upload);
+        long copyingAllocated = allocatedBy(() -> writer.submit(this::copyingUpload).get());
+
+        long content = (long) CHUNK_SIZE * CHUNKS;
+        assertTrue("Upload of " + content + " bytes allocated " + allocated + " bytes", allocated < content / 16);
+        assertTrue("Copying each chunk allocated " + copyingAllocated + " bytes", copyingAllocated >= content);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void upload() {
+        StreamObserver<XenonProto.WriteToFileResponse> responseObserver = (StreamObserver<XenonProto.WriteToFileResponse>) mock(StreamObserver.class);
+        StreamObserver<XenonProto.WriteToFileRequest> requestBroadcaster = new WriteToFileBroadcaster(fileSystems, new MetadataCaches(0, 0), responseObserver, new Throttles(0, 0, 0, filesystem -> { }), writer);
+        for (XenonProto.WriteToFileRequest request : requests) {
+            requestBroadcaster.onNext(request);
+        }
+        requestBroadcaster.onCompleted();
+        verify(responseObserver, timeout(10000)).onCompleted();
+    }
+
+    // what the broadcasters did before, to compare with
+    private void copyingUpload() {
+        try (OutputStream pipe = new DiscardingOutputStream()) {
+            for (XenonProto.WriteToFileRequest request : requests) {
+                pipe.write(request.getBuffer().toByteArray());
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private interface Upload {
+        void run() throws Exception;
+    }
+
+    // counts what the writer thread allocated, the requests are sent from this thread
+    private long allocatedBy(Upload upload) throws Exception {
+        long before = threadBean.getThreadAllocatedBytes(writerId);
+        upload.run();
+        return threadBean.getThreadAllocatedBytes(writerId) - before;
+    }
+
+    private static class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
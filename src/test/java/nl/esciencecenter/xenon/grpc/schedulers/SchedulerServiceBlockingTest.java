@@ -8,7 +8,9 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -17,6 +19,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.stream.Stream;
 
 import com.google.protobuf.ProtocolStringList;
@@ -24,6 +27,7 @@ import io.grpc.ManagedChannel;
 import io.grpc.Server;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -37,6 +41,7 @@ import nl.esciencecenter.xenon.adaptors.schedulers.QueueStatusImplementation;
 import nl.esciencecenter.xenon.filesystems.FileSystem;
 import nl.esciencecenter.xenon.grpc.SchedulerServiceGrpc;
 import nl.esciencecenter.xenon.grpc.XenonProto;
+import nl.esciencecenter.xenon.grpc.filesystems.FileSystemService;
 import nl.esciencecenter.xenon.schedulers.JobDescription;
 import nl.esciencecenter.xenon.schedulers.JobStatus;
 import nl.esciencecenter.xenon.schedulers.QueueStatus;
@@ -149,6 +154,84 @@ public class SchedulerServiceBlockingTest {
         assertEquals("No schedulers registered", 0, result.getSchedulersCount());
     }
 
+    @Test
+    public void close_releasesFileSystemOfScheduler() throws Exception {
+        FileSystem fileSystem = mock(FileSystem.class);
+        when(scheduler.getFileSystem()).thenReturn(fileSystem);
+        FileSystemService fileSystemService = mock(FileSystemService.class);
+        service.setFileSystemService(fileSystemService);
+
+        client.close(createScheduler());
+
+        verify(fileSystemService).removeFileSystem(fileSystem);
+    }
+
+    @Test
+    public void expiredScheduler_releasesFileSystemOfScheduler() throws Exception {
+        FileSystem fileSystem = mock(FileSystem.class);
+        Scheduler expiring = mock(Scheduler.class);
+        when(expiring.getAdaptorName()).thenReturn("local");
+        when(expiring.getLocation()).thenReturn("local://");
+        when(expiring.getFileSystem()).thenReturn(fileSystem);
+        FileSystemService fileSystemService = mock(FileSystemService.class);
+        service.setFileSystemService(fileSystemService);
+        service.setLeaseTimeout(1);
+
+        service.putScheduler(expiring, "other");
+
+        verify(fileSystemService, timeout(2000)).removeFileSystem(fileSystem);
+        verify(expiring, timeout(2000)).close();
+    }
+
+    @Test
+    public void expiredScheduler_whileWaitingOnJob_keptOpen() throws Exception {
+        Scheduler waited = mock(Scheduler.class);
+        when(waited.getAdaptorName()).thenReturn("local");
+        when(waited.getLocation()).thenReturn("local://");
+        CountDownLatch jobDone = new CountDownLatch(1);
+        when(waited.waitUntilDone("JOB-1", 0)).thenAnswer(invocation -> {
+            jobDone.await();
+            return null;
+        });
+        service.setLeaseTimeout(50);
+        String id = service.putScheduler(waited, "other");
+        XenonProto.WaitRequest request = XenonProto.WaitRequest.newBuilder()
+            .setScheduler(XenonProto.Scheduler.newBuilder().setId(id))
+            .setJob(buildJob("JOB-1"))
+            .build();
+        @SuppressWarnings("unchecked")
+        StreamObserver<XenonProto.JobStatus> response = mock(StreamObserver.class);
+        Thread waiter = new Thread(() -> service.waitUntilDone(request, response));
+        waiter.start();
+
+        verify(waited, after(300).never()).close();
+        jobDone.countDown();
+        waiter.join();
+        verify(waited, timeout(2000)).close();
+    }
+
+    @Test
+    public void expiredScheduler_fileSystemInUse_keptOpen() throws Exception {
+        FileSystem fileSystem = mock(FileSystem.class);
+        when(fileSystem.getAdaptorName()).thenReturn("file");
+        when(fileSystem.getLocation()).thenReturn("/");
+        Scheduler used = mock(Scheduler.class);
+        when(used.getAdaptorName()).thenReturn("local");
+        when(used.getLocation()).thenReturn("local://");
+        when(used.getFileSystem()).thenReturn(fileSystem);
+        FileSystemService fileSystemService = mock(FileSystemService.class);
+        when(fileSystemService.isBusy(fileSystem)).thenReturn(true);
+        service.setFileSystemService(fileSystemService);
+        service.setLeaseTimeout(50);
+        String id = service.putScheduler(used, "other");
+
+        client.getFileSystem(XenonProto.Scheduler.newBuilder().setId(id).build());
+
+        verify(used, after(300).never()).close();
+        when(fileSystemService.isBusy(fileSystem)).thenReturn(false);
+        verify(used, timeout(2000)).close();
+    }
+
     @Test
     public void close_unknownScheduler() {
         thrown.expectMessage("NOT_FOUND: Scheduler with id: ssh://someone@localhost");